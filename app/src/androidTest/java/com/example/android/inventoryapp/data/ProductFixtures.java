@@ -0,0 +1,29 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Rows of valid products for the instrumented tests to insert
+ */
+final class ProductFixtures {
+
+    private ProductFixtures() {}
+
+    /**
+     * Return the column values of a valid product without an image
+     */
+    static ContentValues product(String name, int price, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_BRAND, "Brand");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, "");
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "555-555-5555");
+        values.put(ProductEntry.COLUMN_SUPPLIER_EMAIL, "orders@example.com");
+        return values;
+    }
+}
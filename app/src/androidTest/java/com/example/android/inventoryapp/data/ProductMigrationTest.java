@@ -0,0 +1,232 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that upgrades run every step in order and that the backfills they leave behind
+ * process every product that existed then, in chunks, resuming after the database is reopened
+ * and without disturbing the products written while they are pending.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductMigrationTest {
+
+    private static final String DATABASE_NAME = "migration_test.db";
+
+    private static final String BACKFILL_TABLE_NAME = "schema_backfills";
+
+    private Context mContext;
+
+    private ProductImageStore mImageStore;
+
+    private ProductDbHelper mDbHelper;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void deleteDatabase() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mImageStore = new ProductImageStore(mContext);
+        mContext.deleteDatabase(DATABASE_NAME);
+        mImageStore.deleteAll();
+    }
+
+    @After
+    public void closeDatabase() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+        mImageStore.deleteAll();
+    }
+
+    @Test
+    public void upgradeFromVersion2_backfillsSearchIndexAndImageFiles() throws Exception {
+        //More images than fit in one chunk, with gaps in the IDs
+        int count = 65;
+        createVersion2Database(count);
+        int products = count - count / 7;
+
+        openDatabase();
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDatabase, BACKFILL_TABLE_NAME));
+        assertEquals(products, DatabaseUtils.longForQuery(mDatabase, "SELECT " + StatsEntry.COLUMN_PRODUCT_COUNT
+                + " FROM " + StatsEntry.TABLE_NAME, null));
+        //An image not moved yet reads as no image rather than as bytes
+        assertEquals("", readImage(1));
+
+        //Written while the backfills are pending: indexed by the triggers, image already a reference
+        long soap = mDatabase.insert(ProductEntry.TABLE_NAME, null, ProductFixtures.product("Soap", 250, 3));
+
+        //The backfills survive the database being closed before they ran
+        mDbHelper.close();
+        openDatabase();
+        mDbHelper.runBackfills();
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, BACKFILL_TABLE_NAME));
+        assertEquals(products + 1, DatabaseUtils.queryNumEntries(mDatabase, ProductEntry.FTS_TABLE_NAME));
+        assertEquals(products, countMatches("product"));
+        assertEquals(1, countMatches("soap"));
+        for (long id = 1; id <= count; id++) {
+            if (id % 7 == 0) {
+                assertFalse(mImageStore.getFile(id).exists());
+                continue;
+            }
+            assertEquals(ProductImageStore.getReference(id), readImage(id));
+            assertArrayEquals(imageOf(id), readFile(mImageStore.getFile(id)));
+        }
+        assertEquals("", readImage(soap));
+    }
+
+    @Test
+    public void upgradeFromVersion7_recreatesViewUnderLedgerTriggers() throws Exception {
+        openDatabase();
+        long id = mDatabase.insert(ProductEntry.TABLE_NAME, null, ProductFixtures.product("Soap", 250, 3));
+        mDatabase.execSQL("DROP TABLE " + BACKFILL_TABLE_NAME);
+        mDatabase.setVersion(7);
+        mDbHelper.close();
+
+        openDatabase();
+        mDbHelper.runBackfills();
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, BACKFILL_TABLE_NAME));
+        //The summary trigger on the ledger reads the recreated view
+        ContentValues movement = new ContentValues();
+        movement.put(MovementEntry.COLUMN_PRODUCT_ID, id);
+        movement.put(MovementEntry.COLUMN_DELTA, 2);
+        movement.put(MovementEntry.COLUMN_REASON, MovementEntry.REASON_RECEIVE);
+        movement.put(MovementEntry.COLUMN_TIME, System.currentTimeMillis());
+        assertTrue(mDatabase.insert(MovementEntry.TABLE_NAME, null, movement) != -1);
+        assertEquals(5, DatabaseUtils.longForQuery(mDatabase, "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + " FROM " + ProductEntry.VIEW_NAME + " WHERE " + ProductEntry._ID + " = " + id, null));
+        assertEquals(5, DatabaseUtils.longForQuery(mDatabase, "SELECT " + StatsEntry.COLUMN_UNIT_COUNT
+                + " FROM " + StatsEntry.TABLE_NAME, null));
+    }
+
+    @Test
+    public void searchIndexBackfill_indexesEveryProductOnce() throws Exception {
+        int products = 2500;
+        openDatabase();
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < products; i++) {
+                mDatabase.insert(ProductEntry.TABLE_NAME, null, ProductFixtures.product("Product " + i, 100, 1));
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        //Bring the search table back to what an upgrade from version 2 leaves
+        mDatabase.execSQL("DELETE FROM " + ProductEntry.FTS_TABLE_NAME);
+        ProductDbHelper.startBackfill(mDatabase, ProductDbHelper.BACKFILL_SEARCH_INDEX);
+
+        //Products written while the backfill is pending are indexed by the triggers
+        long renamed = DatabaseUtils.longForQuery(mDatabase, "SELECT min(" + ProductEntry._ID + ") FROM "
+                + ProductEntry.TABLE_NAME, null);
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Towel");
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + " = " + renamed, null);
+        mDatabase.insert(ProductEntry.TABLE_NAME, null, ProductFixtures.product("Soap", 250, 3));
+
+        mDbHelper.runBackfills();
+
+        assertEquals(products + 1, DatabaseUtils.queryNumEntries(mDatabase, ProductEntry.FTS_TABLE_NAME));
+        assertEquals(1, countMatches("towel"));
+        assertEquals(1, countMatches("soap"));
+        assertEquals(products - 1, countMatches("product"));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, BACKFILL_TABLE_NAME));
+    }
+
+    private void openDatabase() {
+        mDbHelper = new ProductDbHelper(mContext, DATABASE_NAME);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    /**
+     * Create the database as version 2 left it, with count products whose images are stored
+     * as bytes, and delete every seventh product
+     */
+    private void createVersion2Database(int count) {
+        File path = mContext.getDatabasePath(DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            database.execSQL("CREATE TABLE inventory (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " name TEXT NOT NULL, supplier_name TEXT NOT NULL, supplier_email TEXT NOT NULL,"
+                    + " supplier_phone TEXT NOT NULL, brand TEXT NOT NULL, price INTEGER NOT NULL,"
+                    + " image TEXT NOT NULL, quantity INTEGER NOT NULL DEFAULT 0)");
+            database.execSQL("CREATE INDEX idx_inventory_list ON inventory (name)");
+            database.execSQL("CREATE INDEX idx_inventory_brand ON inventory (brand)");
+            database.execSQL("CREATE INDEX idx_inventory_supplier_name ON inventory (supplier_name)");
+            for (int i = 1; i <= count; i++) {
+                ContentValues values = ProductFixtures.product("Product " + i, 100, 1);
+                values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, imageOf(i));
+                database.insert(ProductEntry.TABLE_NAME, null, values);
+            }
+            database.delete(ProductEntry.TABLE_NAME, ProductEntry._ID + " % 7 = 0", null);
+            database.setVersion(2);
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Return the made up image bytes of the product with the given ID
+     */
+    private static byte[] imageOf(long id) {
+        byte[] image = new byte[1024 + (int) id];
+        Arrays.fill(image, (byte) id);
+        return image;
+    }
+
+    private String readImage(long id) {
+        Cursor cursor = mDatabase.query(ProductEntry.VIEW_NAME, new String[]{ProductEntry.COLUMN_PRODUCT_IMAGE},
+                ProductEntry._ID + " = ?", new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            assertTrue("No product " + id, cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                read += in.read(bytes, read, bytes.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private long countMatches(String query) {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM " + ProductEntry.FTS_TABLE_NAME
+                + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH ?", new String[]{query});
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for the query shapes ProductProvider serves and fails if any of them
+ * falls back to scanning the inventory or the stock movements without an index. Product queries
+ * go through the view that adds pending movements to each quantity, as the provider's do.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductQueryPlanTest {
+
+    /** Projection used by the inventory list */
+    private static final String[] LIST_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY };
+
+    private ProductDbHelper mDbHelper;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void openDatabase() {
+        mDbHelper = new ProductDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void closeDatabase() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void listQuery_usesCoveringIndex() throws Exception {
+        assertNoTableScan(LIST_PROJECTION, null, null);
+    }
+
+    @Test
+    public void listQuerySortedByName_usesCoveringIndex() throws Exception {
+        assertNoTableScan(LIST_PROJECTION, null, ProductEntry.COLUMN_PRODUCT_NAME);
+    }
+
+    @Test
+    public void queryById_usesPrimaryKey() throws Exception {
+        assertNoTableScan(null, ProductEntry._ID + "=?", null);
+    }
+
+    @Test
+    public void queryByName_usesIndex() throws Exception {
+        assertNoTableScan(null, ProductEntry.COLUMN_PRODUCT_NAME + "=?", null);
+    }
+
+    @Test
+    public void queryByBrand_usesIndex() throws Exception {
+        assertNoTableScan(null, ProductEntry.COLUMN_PRODUCT_BRAND + "=?", null);
+    }
+
+    @Test
+    public void queryBySupplierName_usesIndex() throws Exception {
+        assertNoTableScan(null, ProductEntry.COLUMN_SUPPLIER_NAME + "=?", null);
+    }
+
+    @Test
+    public void pageById_seeksWithoutSorting() throws Exception {
+        assertNoTableScan(LIST_PROJECTION, ProductEntry._ID + " > ?", ProductEntry._ID);
+        assertNoSortStep(LIST_PROJECTION, ProductEntry._ID + " > ?", ProductEntry._ID);
+    }
+
+    @Test
+    public void pageByName_seeksWithoutSorting() throws Exception {
+        String keySelection = ProductEntry.COLUMN_PRODUCT_NAME + " >= ? AND ("
+                + ProductEntry.COLUMN_PRODUCT_NAME + " > ? OR " + ProductEntry._ID + " > ?)";
+        String pageOrder = ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry._ID;
+        assertNoTableScan(LIST_PROJECTION, keySelection, pageOrder);
+        assertNoSortStep(LIST_PROJECTION, keySelection, pageOrder);
+    }
+
+    @Test
+    public void movementsOfProductByTime_useIndex() throws Exception {
+        String selection = MovementEntry.COLUMN_PRODUCT_ID + " = ? AND " + MovementEntry.COLUMN_TIME + " >= ? AND "
+                + MovementEntry.COLUMN_TIME + " < ?";
+        assertNoTableScan(MovementEntry.TABLE_NAME, null, selection, MovementEntry._ID);
+    }
+
+    @Test
+    public void movementsByTime_useIndex() throws Exception {
+        String selection = MovementEntry.COLUMN_TIME + " >= ? AND " + MovementEntry.COLUMN_TIME + " < ?";
+        assertNoTableScan(MovementEntry.TABLE_NAME, null, selection, null);
+    }
+
+    private void assertNoTableScan(String[] projection, String selection, String sortOrder) {
+        assertNoTableScan(ProductEntry.VIEW_NAME, projection, selection, sortOrder);
+    }
+
+    /**
+     * Fail if any step of the plan is a SCAN that does not go through an index
+     */
+    private void assertNoTableScan(String table, String[] projection, String selection, String sortOrder) {
+        for (String detail : explain(table, projection, selection, sortOrder)) {
+            if (detail.contains("SCAN") && !detail.contains("INDEX")) {
+                fail("Query plan regressed to a table scan: " + detail);
+            }
+        }
+    }
+
+    /**
+     * Fail if the plan needs a temporary b-tree to sort, which would read every matching row
+     * before returning the first page
+     */
+    private void assertNoSortStep(String[] projection, String selection, String sortOrder) {
+        for (String detail : explain(ProductEntry.VIEW_NAME, projection, selection, sortOrder)) {
+            if (detail.contains("TEMP B-TREE")) {
+                fail("Query plan sorts instead of reading in index order: " + detail);
+            }
+        }
+    }
+
+    /**
+     * Build the query the same way SQLiteDatabase.query does for the provider, explain it,
+     * and return the detail column of each step of the plan
+     */
+    private List<String> explain(String table, String[] projection, String selection, String sortOrder) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection,
+                selection, null, null, sortOrder, null);
+
+        //Bind a dummy value to every placeholder of the selection
+        String[] selectionArgs = null;
+        if (selection != null) {
+            selectionArgs = new String[selection.length() - selection.replace("?", "").length()];
+            Arrays.fill(selectionArgs, "1");
+        }
+
+        List<String> details = new ArrayList<String>();
+        Cursor plan = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailColumnIndex = plan.getColumnIndexOrThrow("detail");
+            while (plan.moveToNext()) {
+                details.add(plan.getString(detailColumnIndex));
+            }
+        } finally {
+            plan.close();
+        }
+        assertFalse("No query plan for " + sql, details.isEmpty());
+        return details;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the summary row maintained by triggers always matches a full recount of the
+ * inventory, including stock movements that have not been compacted yet.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductStatsTest {
+
+    private ProductDbHelper mDbHelper;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void openDatabase() {
+        mDbHelper = new ProductDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void closeDatabase() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void emptyInventory_hasZeroTotals() throws Exception {
+        assertArrayEquals(new long[]{0, 0, 0, 0}, readStats());
+        assertStatsConsistent();
+    }
+
+    @Test
+    public void insert_addsProductToTotals() throws Exception {
+        insertProduct("Soap", 250, 3);
+        insertProduct("Towel", 1000, 10);
+
+        assertArrayEquals(new long[]{2, 13, 250 * 3 + 1000 * 10, 1}, readStats());
+        assertStatsConsistent();
+    }
+
+    @Test
+    public void updateOfPriceAndQuantity_changesTotals() throws Exception {
+        long id = insertProduct("Soap", 250, 3);
+        insertProduct("Towel", 1000, 10);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 300);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 8);
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?",
+                new String[]{String.valueOf(id)});
+
+        assertArrayEquals(new long[]{2, 18, 300 * 8 + 1000 * 10, 0}, readStats());
+        assertStatsConsistent();
+    }
+
+    @Test
+    public void updateOfOtherColumns_leavesTotals() throws Exception {
+        long id = insertProduct("Soap", 250, 3);
+        long[] before = readStats();
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Hand soap");
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?",
+                new String[]{String.valueOf(id)});
+
+        assertArrayEquals(before, readStats());
+    }
+
+    @Test
+    public void delete_removesProductFromTotals() throws Exception {
+        long id = insertProduct("Soap", 250, 3);
+        insertProduct("Towel", 1000, 10);
+
+        mDatabase.delete(ProductEntry.TABLE_NAME, ProductEntry._ID + "=?", new String[]{String.valueOf(id)});
+        assertArrayEquals(new long[]{1, 10, 1000 * 10, 0}, readStats());
+
+        mDatabase.delete(ProductEntry.TABLE_NAME, null, null);
+        assertArrayEquals(new long[]{0, 0, 0, 0}, readStats());
+        assertStatsConsistent();
+    }
+
+    @Test
+    public void manyChanges_matchFullRecount() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            insertProduct("Product " + i, 100 + i, i % 12);
+        }
+        mDatabase.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + 2 WHERE " + ProductEntry._ID + " % 3 = 0");
+        mDatabase.execSQL("DELETE FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " % 7 = 0");
+
+        assertStatsConsistent();
+    }
+
+    @Test
+    public void movementsAndCompaction_keepTotalsAndQuantities() throws Exception {
+        long soap = insertProduct("Soap", 250, 3);
+        long towel = insertProduct("Towel", 1000, 10);
+
+        appendMovement(soap, 5);
+        appendMovement(towel, -7);
+        appendMovement(soap, -1);
+        assertArrayEquals(new long[]{2, 10, 250 * 7 + 1000 * 3, 1}, readStats());
+        assertStatsConsistent();
+
+        ProductDbHelper.compactMovements(mDatabase);
+        assertArrayEquals(new long[]{2, 10, 250 * 7 + 1000 * 3, 1}, readStats());
+        assertStatsConsistent();
+        assertEquals(7, readQuantity(ProductEntry.TABLE_NAME, soap));
+        assertEquals(7, readQuantity(ProductEntry.VIEW_NAME, soap));
+        assertEquals(3, readQuantity(ProductEntry.VIEW_NAME, towel));
+
+        appendMovement(towel, 4);
+        mDatabase.delete(ProductEntry.TABLE_NAME, ProductEntry._ID + "=?", new String[]{String.valueOf(soap)});
+        appendMovement(soap, 2);
+        assertArrayEquals(new long[]{1, 7, 1000 * 7, 0}, readStats());
+        assertStatsConsistent();
+    }
+
+    /**
+     * Fail unless the summary row equals the one rebuilt from scratch
+     */
+    private void assertStatsConsistent() {
+        long[] maintained = readStats();
+        ProductDbHelper.rebuildStats(mDatabase);
+        long[] rebuilt = readStats();
+        assertArrayEquals("Summary drifted from the inventory: " + Arrays.toString(maintained)
+                + " but a recount gives " + Arrays.toString(rebuilt), rebuilt, maintained);
+    }
+
+    /**
+     * Return product count, unit count, stock value and low stock count
+     */
+    private long[] readStats() {
+        Cursor cursor = mDatabase.query(StatsEntry.TABLE_NAME, new String[]{
+                StatsEntry.COLUMN_PRODUCT_COUNT,
+                StatsEntry.COLUMN_UNIT_COUNT,
+                StatsEntry.COLUMN_STOCK_VALUE,
+                StatsEntry.COLUMN_LOW_STOCK_COUNT}, null, null, null, null, null);
+        try {
+            assertEquals("Expected exactly one summary row", 1, cursor.getCount());
+            cursor.moveToFirst();
+            return new long[]{cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int readQuantity(String table, long id) {
+        Cursor cursor = mDatabase.query(table, new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY},
+                ProductEntry._ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            assertTrue("No product " + id + " in " + table, cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void appendMovement(long productId, int delta) {
+        ContentValues values = new ContentValues();
+        values.put(MovementEntry.COLUMN_PRODUCT_ID, productId);
+        values.put(MovementEntry.COLUMN_DELTA, delta);
+        values.put(MovementEntry.COLUMN_REASON, delta < 0 ? MovementEntry.REASON_SALE : MovementEntry.REASON_RECEIVE);
+        values.put(MovementEntry.COLUMN_TIME, System.currentTimeMillis());
+        mDatabase.insert(MovementEntry.TABLE_NAME, null, values);
+    }
+
+    private long insertProduct(String name, int price, int quantity) {
+        return mDatabase.insert(ProductEntry.TABLE_NAME, null, ProductFixtures.product(name, price, quantity));
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the latency of product lookups while a bulk write transaction is in progress,
+ * once with SQLite's rollback journal and once with write-ahead logging.
+ * Results are written to logcat under the ReadDuringWriteBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReadDuringWriteBenchmark {
+
+    private static final String LOG_TAG = ReadDuringWriteBenchmark.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "read_during_write_benchmark.db";
+
+    /** Products in the table before the bulk write starts */
+    private static final int SEED_ROWS = 10000;
+
+    /** Products inserted by the bulk write, all inside one transaction */
+    private static final int WRITE_ROWS = 20000;
+
+    private Context mContext;
+
+    @Before
+    public void deleteDatabase() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void cleanUp() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void rollbackJournal_readsWaitForWriter() throws Exception {
+        //Without WAL there is a single connection, which the writer holds until it commits
+        int readsDuringWrite = measure(false);
+        assertEquals("A read completed while the bulk write held the database", 0, readsDuringWrite);
+    }
+
+    @Test
+    public void writeAheadLogging_readsProceedDuringWrite() throws Exception {
+        int readsDuringWrite = measure(true);
+        assertTrue("No read completed while the bulk write was in progress", readsDuringWrite > 0);
+    }
+
+    /**
+     * Run lookups by _ID on this thread while another thread bulk inserts, log the latency
+     * percentiles and return how many lookups completed before the write started to commit
+     */
+    private int measure(boolean writeAheadLogging) throws Exception {
+        ProductDbHelper dbHelper = new ProductDbHelper(mContext, DATABASE_NAME, writeAheadLogging);
+        final SQLiteDatabase database = dbHelper.getWritableDatabase();
+        insertProducts(database, SEED_ROWS);
+
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final boolean[] writing = {true};
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                database.beginTransactionNonExclusive();
+                writeStarted.countDown();
+                try {
+                    for (int i = 0; i < WRITE_ROWS; i++) {
+                        database.insert(ProductEntry.TABLE_NAME, null, product(i));
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    //Cleared before the commit, so a read that sees it set finished during the write
+                    synchronized (writing) {
+                        writing[0] = false;
+                    }
+                    database.endTransaction();
+                }
+            }
+        });
+
+        long writeStart = System.nanoTime();
+        writer.start();
+        writeStarted.await();
+
+        SQLiteDatabase reader = dbHelper.getReadableDatabase();
+        Random random = new Random(42);
+        long[] latencies = new long[WRITE_ROWS];
+        int reads = 0;
+        int readsDuringWrite = 0;
+        boolean stillWriting = true;
+        while (stillWriting && reads < latencies.length) {
+            long start = System.nanoTime();
+            Cursor cursor = reader.query(ProductEntry.TABLE_NAME, null, ProductEntry._ID + "=?",
+                    new String[]{String.valueOf(1 + random.nextInt(SEED_ROWS))}, null, null, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+            latencies[reads++] = System.nanoTime() - start;
+
+            synchronized (writing) {
+                stillWriting = writing[0];
+            }
+            if (stillWriting) {
+                readsDuringWrite++;
+            }
+        }
+        writer.join();
+        long writeMillis = (System.nanoTime() - writeStart) / 1000000;
+        dbHelper.close();
+
+        Arrays.sort(latencies, 0, reads);
+        Log.i(LOG_TAG, (writeAheadLogging ? "WAL" : "rollback journal")
+                + ": write " + writeMillis + " ms, " + readsDuringWrite + " reads during write"
+                + ", p50 " + micros(latencies, reads, 0.50) + " us"
+                + ", p99 " + micros(latencies, reads, 0.99) + " us"
+                + ", max " + latencies[reads - 1] / 1000 + " us");
+
+        return readsDuringWrite;
+    }
+
+    private static long micros(long[] sortedLatencies, int count, double percentile) {
+        return sortedLatencies[(int) Math.min(count - 1, Math.floor(count * percentile))] / 1000;
+    }
+
+    private static void insertProducts(SQLiteDatabase database, int count) {
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                database.insert(ProductEntry.TABLE_NAME, null, product(i));
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static ContentValues product(int i) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+        values.put(ProductEntry.COLUMN_PRODUCT_BRAND, "Brand " + (i % 50));
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 100 + i % 1000);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 20);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, "");
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier " + (i % 200));
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "555-555-5555");
+        values.put(ProductEntry.COLUMN_SUPPLIER_EMAIL, "orders@example.com");
+        return values;
+    }
+}
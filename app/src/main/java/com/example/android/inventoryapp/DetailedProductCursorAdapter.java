@@ -9,7 +9,8 @@ import android.widget.CursorAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductCodec;
 
 /**
  * This adapter knows how to create list items for each row of product data in the cursor}.
@@ -35,6 +36,12 @@ public class DetailedProductCursorAdapter extends CursorAdapter {
 
     private TextView mDetailSupplierEmail;
 
+    /** Codec for the current cursor, recreated when the cursor is swapped */
+    private ProductCodec mCodec;
+
+    /** Product reused for every row that is bound */
+    private final Product mProduct = new Product();
+
     /**
      * Makes a new blank list item view. No data is set (or bound) to the views yet.
      *
@@ -64,32 +71,19 @@ public class DetailedProductCursorAdapter extends CursorAdapter {
         mDetailSupplierPhone = (TextView) view.findViewById(R.id.detail_supplier_phone);
         mDetailSupplierEmail = (TextView) view.findViewById(R.id.detail_supplier_email);
 
-        int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
-        int brandColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_BRAND);
-        int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
-        int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-        int imageColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE);
-        int supplierNameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_NAME);
-        int supplierPhoneColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_PHONE);
-        int supplierEmailColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_EMAIL);
-
-        // Extract out the value from the Cursor for the given column index
-        String name = cursor.getString(nameColumnIndex);
-        String brand = cursor.getString(brandColumnIndex);
-        int price = cursor.getInt(priceColumnIndex);
-        int quantity = cursor.getInt(quantityColumnIndex);
-        String image = cursor.getString(imageColumnIndex);
-        String supplierName = cursor.getString(supplierNameColumnIndex);
-        String supplierPhone = cursor.getString(supplierPhoneColumnIndex);
-        String supplierEmail = cursor.getString(supplierEmailColumnIndex);
-
-        mDetailName.setText(name);
-        mDetailBrand.setText(brand);
-        mDetailPrice.setText(Integer.toString(price));
-        mDetailQuantity.setText(Integer.toString(quantity));
-        mDetailImage.setImage(image);
-        mDetailSupplierName.setText(supplierName);
-        mDetailSupplierPhone.setText(supplierPhone);
-        mDetailSupplierEmail.setText(supplierEmail);
+        // Read the product in the current row, reusing the column indexes of this cursor
+        if (mCodec == null || !mCodec.isFor(cursor)) {
+            mCodec = new ProductCodec(cursor);
+        }
+        Product product = mCodec.read(cursor, mProduct);
+
+        mDetailName.setText(product.getName());
+        mDetailBrand.setText(product.getBrand());
+        mDetailPrice.setText(Integer.toString(product.getPrice()));
+        mDetailQuantity.setText(Integer.toString(product.getQuantity()));
+        ProductImageLoader.get(context).load(product.getId(), product.getImage(), mDetailImage);
+        mDetailSupplierName.setText(product.getSupplierName());
+        mDetailSupplierPhone.setText(product.getSupplierPhone());
+        mDetailSupplierEmail.setText(product.getSupplierEmail());
     }
 }
\ No newline at end of file
@@ -2,12 +2,13 @@ package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
@@ -17,6 +18,7 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.ProductContract;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 
 public class DetailsActivity extends AppCompatActivity implements
@@ -27,80 +29,42 @@ public class DetailsActivity extends AppCompatActivity implements
      */
     DetailedProductCursorAdapter mDetailedCursorAdapter;
 
+    /**
+     * Content URI for the product being displayed
+     */
+    private Uri mCurrentProductUri;
+
+    /**
+     * Number of quantity adjustments sent to the provider, and the number of the latest one
+     * whose result is shown, so that a result arriving after a newer one is not displayed
+     */
+    private int mAdjustmentsSent;
+    private int mAdjustmentShown;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_details);
-    }
 
-    @Override
-    protected void onStart() {
-        super.onStart();
-        displayDatabaseInfo();
-    }
+        mCurrentProductUri = getIntent().getData();
 
-    private void displayDatabaseInfo() {
-
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_BRAND,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductEntry.COLUMN_PRODUCT_IMAGE,
-                ProductEntry.COLUMN_SUPPLIER_NAME,
-                ProductEntry.COLUMN_SUPPLIER_PHONE,
-                ProductEntry.COLUMN_SUPPLIER_EMAIL
-        };
-
-        Cursor cursor = getContentResolver().query(ProductEntry.CONTENT_URI, projection, null, null, null);
-
-        // Find the ListView which will be populated with the pet data
-        ListView productDetailListView = (ListView) findViewById(R.id.detail_list_item);
-
-        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-
-        mDetailedCursorAdapter = new DetailedProductCursorAdapter(this, cursor);
-        productDetailListView.setAdapter(mDetailedCursorAdapter);
-
-    }
-
-    // Decrease quantity by 1
-    Button btnTrack = (Button) findViewById(R.id.track_sale_button);
-        btnTrack.setOnClickListener(new View.OnClickListener()  {
-        @Override
-        public void onClick (View view){
-            if (cursor.moveToFirst()) {
-                int quantity = cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY));
-                if (quantity > 0) {
-                    db.updateData(subProductName, quantity, -1);
-                    quantity = cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY));
-                    mDetailQuantity = (TextView) findViewById(R.id.detail_quantity);
-                    mDetailQuantity.setText("" + quantity);
-                    Toast.makeText(DetailsActivity.this, "Refresh!", Toast.LENGTH_SHORT).show();
-                } else {
-                    Toast.makeText(DetailsActivity.this, "It's empty! Order Now!", Toast.LENGTH_SHORT).show();
-                }
+        // Decrease quantity by 1
+        Button btnTrack = (Button) findViewById(R.id.track_sale_button);
+        btnTrack.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                adjustQuantity(-1);
             }
-        }
-    }
+        });
 
-    // Increase quantity by 1
-    Button btnReceive = (Button) findViewById(R.id.received_shipment_button);
-        btnReceive.setOnClickListener(new View.OnClickListener()    {
-        @Override
-        public void onClick (View view){
-        if (cursor.moveToFirst()) {
-            int quantity = cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY));
-            db.updateData(subProductName, quantity, 1);
-            quantity = cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY));
-            mDetailQuantity = (TextView) findViewById(R.id.text_quantity);
-            mDetailQuantity.setText("" + quantity);
-            Toast.makeText(DetailsActivity.this, "Refresh!", Toast.LENGTH_SHORT).show();
-        }
-    }
+        // Increase quantity by 1
+        Button btnReceive = (Button) findViewById(R.id.received_shipment_button);
+        btnReceive.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                adjustQuantity(1);
+            }
+        });
 
         // Order Now
         Button orderNow = (Button) findViewById(R.id.order_stock);
@@ -116,7 +80,7 @@ public class DetailsActivity extends AppCompatActivity implements
                 intent.putExtra(Intent.EXTRA_TEXT, "In need of some " + productName);
                 startActivity(Intent.createChooser(intent, "Send Email"));
             }
-        };
+        });
 
         // delete row
         Button delete = (Button) findViewById(R.id.delete_product_button);
@@ -144,10 +108,114 @@ public class DetailsActivity extends AppCompatActivity implements
                         .setNegativeButton("No", dialogClickListener).show();
             }
         });
+    }
 
-        // Convert byte array to bitmap and display the image
-        ImageView img = (ImageView) findViewById(R.id.imageView);
-        byte[] image = cursor.getBlob(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE));
-        Bitmap bitmap = BitmapFactory.decodeByteArray(image, 0, image.length);
-        img.setImageBitmap(bitmap);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        displayDatabaseInfo();
+
+        // Loading on every start picks up an image replaced while the activity was in the background
+        loadImage();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        ProductImageLoader.get(this).cancel((ImageView) findViewById(R.id.imageView));
+    }
+
+    /**
+     * Read the image reference of the current product off the main thread, then decode the
+     * image off the main thread too, sized to the view
+     */
+    private void loadImage() {
+        final long productId = ContentUris.parseId(mCurrentProductUri);
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... params) {
+                Cursor cursor = getContentResolver().query(mCurrentProductUri,
+                        new String[]{ProductEntry.COLUMN_PRODUCT_IMAGE}, null, null, null);
+                if (cursor == null) {
+                    return null;
+                }
+                try {
+                    return cursor.moveToFirst() ? cursor.getString(0) : null;
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(String imageReference) {
+                ImageView img = (ImageView) findViewById(R.id.imageView);
+                ProductImageLoader.get(DetailsActivity.this).load(productId, imageReference, img);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void displayDatabaseInfo() {
+
+        // Define a projection that specifies which columns from the database
+        // you will actually use after this query.
+        String[] projection = {
+                ProductEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_BRAND,
+                ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_IMAGE,
+                ProductEntry.COLUMN_SUPPLIER_NAME,
+                ProductEntry.COLUMN_SUPPLIER_PHONE,
+                ProductEntry.COLUMN_SUPPLIER_EMAIL
+        };
+
+        Cursor cursor = getContentResolver().query(ProductEntry.CONTENT_URI, projection, null, null, null);
+
+        // Find the ListView which will be populated with the pet data
+        ListView productDetailListView = (ListView) findViewById(R.id.detail_list_item);
+
+        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
+
+        mDetailedCursorAdapter = new DetailedProductCursorAdapter(this, cursor);
+        productDetailListView.setAdapter(mDetailedCursorAdapter);
+
+    }
+
+    /**
+     * Atomically add delta to the quantity of the current product through the provider, off the
+     * main thread, and show the new quantity. Adjustments run in parallel so that the provider
+     * can commit a burst of taps together; warn if the product is out of stock instead
+     */
+    private void adjustQuantity(final int delta) {
+        final int adjustment = ++mAdjustmentsSent;
+        final String productId = String.valueOf(ContentUris.parseId(mCurrentProductUri));
+        new AsyncTask<Void, Void, Bundle>() {
+            @Override
+            protected Bundle doInBackground(Void... params) {
+                Bundle extras = new Bundle();
+                extras.putInt(ProductEntry.ADJUST_QUANTITY_DELTA, delta);
+                return getContentResolver().call(ProductEntry.CONTENT_URI, ProductContract.METHOD_ADJUST_QUANTITY,
+                        productId, extras);
+            }
+
+            @Override
+            protected void onPostExecute(Bundle result) {
+                if (result == null || !result.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+                    if (delta < 0) {
+                        Toast.makeText(DetailsActivity.this, "It's empty! Order Now!", Toast.LENGTH_SHORT).show();
+                    }
+                    return;
+                }
+                if (adjustment < mAdjustmentShown) {
+                    return;
+                }
+                mAdjustmentShown = adjustment;
+
+                TextView quantityTextView = (TextView) findViewById(R.id.detail_quantity);
+                quantityTextView.setText(Integer.toString(result.getInt(ProductEntry.COLUMN_PRODUCT_QUANTITY)));
+                Toast.makeText(DetailsActivity.this, "Refresh!", Toast.LENGTH_SHORT).show();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
+}
@@ -22,6 +22,8 @@ import android.widget.ArrayAdapter;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductCodec;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 
 /**
@@ -242,34 +244,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // Proceed with moving to the first row of the cursor and reading data from it
             // (This should be the only row in the cursor)
             if (cursor.moveToFirst()) {
-                // Find the columns of pet attributes that we're interested in
-                int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
-                int brandColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_BRAND);
-                int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
-                int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-                int imageColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE);
-                int supplierNameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_NAME);
-                int supplierPhoneColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_PHONE);
-                int supplierEmailColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_EMAIL);
-
-                // Extract out the value from the Cursor for the given column index
-                String name = cursor.getString(nameColumnIndex);
-                String brand = cursor.getString(brandColumnIndex);
-                int price = cursor.getInt(priceColumnIndex);
-                int quantity = cursor.getInt(quantityColumnIndex);
-                String image = cursor.getString(imageColumnIndex);
-                String supplierName = cursor.getString(supplierNameColumnIndex);
-                String supplierPhone = cursor.getString(supplierPhoneColumnIndex);
-                String supplierEmail = cursor.getString(supplierEmailColumnIndex);
-
-                mNameEditText.setText(name);
-                mBrandEditText.setText(brand);
-                mPriceEditText.setText(Integer.toString(price));
-                mQuantityEditText.setText(Integer.toString(quantity));
-                mImageEditText.setText(image);
-                mSupplierNameEditText.setText(supplierName);
-                mSupplierPhoneEditText.setText(supplierPhone);
-                mSupplierEmailEditText.setText(supplierEmail);
+                Product product = new ProductCodec(cursor).read(cursor);
+
+                mNameEditText.setText(product.getName());
+                mBrandEditText.setText(product.getBrand());
+                mPriceEditText.setText(Integer.toString(product.getPrice()));
+                mQuantityEditText.setText(Integer.toString(product.getQuantity()));
+                mImageEditText.setText(product.getImage());
+                mSupplierNameEditText.setText(product.getSupplierName());
+                mSupplierPhoneEditText.setText(product.getSupplierPhone());
+                mSupplierEmailEditText.setText(product.getSupplierEmail());
             }
         }
 
@@ -3,37 +3,72 @@ package com.example.android.inventoryapp;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
 import android.widget.ImageView;
-import android.widget.ListView;
+import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.Product;
+import com.example.android.inventoryapp.data.ProductCodec;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductImporter;
 import com.getbase.floatingactionbutton.FloatingActionButton;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /** Displays list of products that were entered and stored in the app */
 public class InventoryActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
-    /** Identifier for the pet data loader */
+    private static final String LOG_TAG = InventoryActivity.class.getSimpleName();
+
+    /** Identifier for the loader of the first page of products; page n uses PRODUCT_LOADER + n */
     private static final int PRODUCT_LOADER = 0;
 
-    /** Adapter for the ListView */
-    ProductCursorAdapter mCursorAdapter;
+    /** Number of products loaded per page of the list; the provider prefetches the first page */
+    private static final int PAGE_SIZE = ProductEntry.LIST_PAGE_SIZE;
+
+    /** Start loading the next page when the user scrolls within this many rows of the end */
+    private static final int PREFETCH_DISTANCE = 20;
+
+    /** Request code of the file picker choosing a catalog to import */
+    private static final int REQUEST_IMPORT_CATALOG = 1;
+
+    /** Loader argument holding the _ID after which a page starts */
+    private static final String ARG_AFTER_ID = "after_id";
+
+    /** Adapter for the RecyclerView */
+    ProductListAdapter mListAdapter;
+
+    /** Empty view, shown while the list has no products */
+    private View mEmptyView;
+
+    /** Pages of products loaded so far, in list order, read out of their loaders' cursors */
+    private final ArrayList<List<Product>> mPages = new ArrayList<List<Product>>();
+
+    /** _ID of the last product of each loaded page */
+    private final ArrayList<Long> mPageEndIds = new ArrayList<Long>();
+
+    /** True once the first page has been shown and the launch reported as complete */
+    private boolean mReportedFullyDrawn;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -49,49 +84,29 @@ public class InventoryActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+
+        setUpList();
     }
 
-        @Override
-        protected void onStart() {
-            super.onStart();
-            displayDatabaseInfo();
-        }
+    /**
+     * Set up the list of products once, when the activity is created. Nothing here touches the
+     * database; the loaders read the pages on a background thread
+     */
+    private void setUpList() {
+        // Find the RecyclerView which will be populated with the product data
+        RecyclerView productListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        productListView.setLayoutManager(layoutManager);
+
+        // Find the empty view, shown only when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
 
-        /**
-         * Helper method to display information in the onscreen TextView about the state of
-         * the pets database.
-         */
-    private void displayDatabaseInfo() {
-
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_BRAND,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductEntry.COLUMN_PRODUCT_IMAGE,
-                ProductEntry.COLUMN_SUPPLIER_NAME,
-                ProductEntry.COLUMN_SUPPLIER_PHONE,
-                ProductEntry.COLUMN_SUPPLIER_EMAIL
-        };
-
-        Cursor cursor = getContentResolver().query(ProductEntry.CONTENT_URI, projection, null, null, null);
-        // Find the ListView which will be populated with the pet data
-        ListView productListView = (ListView) findViewById(R.id.list);
-
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        productListView.setEmptyView(emptyView);
-
-        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no pet data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new ProductCursorAdapter(this, null);
-        productListView.setAdapter(mCursorAdapter);
-
-        // Setup the item click listener
-        productListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each product.
+        // There is no product data yet (until the loader finishes), so the list starts empty.
+        // Clicking an item opens the product it shows
+        mListAdapter = new ProductListAdapter(new ProductListAdapter.OnProductClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onProductClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(R.id.detail_layout);
 
@@ -109,9 +124,83 @@ public class InventoryActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        productListView.setAdapter(mListAdapter);
+
+        // Load the next page of products as the user nears the end of the list
+        productListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if (lastVisibleItem >= mListAdapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        // Kick off the loader for the first page. After a configuration change the loaders of
+        // the later pages are still there; take them back too, so their pages are shown here
+        // and loadNextPage does not wait on a loader reporting to the old activity
+        LoaderManager loaderManager = getLoaderManager();
+        loaderManager.initLoader(PRODUCT_LOADER, null, this);
+        for (int id = PRODUCT_LOADER + 1; loaderManager.getLoader(id) != null; id++) {
+            loaderManager.initLoader(id, null, this);
+        }
+    }
+
+    /**
+     * Start loading the page after the last loaded page, unless it is already loading
+     * or the last page came back short, meaning there are no more products
+     */
+    private void loadNextPage() {
+        int lastPage = mPages.size() - 1;
+        if (lastPage < 0 || mPages.get(lastPage).size() < PAGE_SIZE) {
+            return;
+        }
+
+        int nextLoaderId = PRODUCT_LOADER + lastPage + 1;
+        if (getLoaderManager().getLoader(nextLoaderId) != null) {
+            return;
+        }
+
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, mPageEndIds.get(lastPage));
+        getLoaderManager().initLoader(nextLoaderId, args, this);
+    }
+
+    /**
+     * Forget every page after the given one and stop their loaders
+     */
+    private void dropPagesAfter(int page) {
+        for (int p = mPages.size() - 1; p > page; p--) {
+            mPages.remove(p);
+            mPageEndIds.remove(p);
+            getLoaderManager().destroyLoader(PRODUCT_LOADER + p);
+        }
+    }
+
+    /**
+     * Show all loaded pages in the list. The adapter works out which rows changed
+     */
+    private void showPages() {
+        ArrayList<Product> products = new ArrayList<Product>(mPages.size() * PAGE_SIZE);
+        for (List<Product> page : mPages) {
+            products.addAll(page);
+        }
+        mListAdapter.submitList(products);
+        mEmptyView.setVisibility(products.isEmpty() ? View.VISIBLE : View.GONE);
+    }
 
-        // Kick off the loader
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+    /**
+     * Read every row of a page cursor into products, looking the column indexes up once
+     */
+    private static List<Product> readPage(Cursor cursor) {
+        ArrayList<Product> page = new ArrayList<Product>(cursor.getCount());
+        ProductCodec codec = new ProductCodec(cursor);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            page.add(codec.read(cursor));
+        }
+        return page;
     }
 
     /**
@@ -161,6 +250,13 @@ public class InventoryActivity extends AppCompatActivity implements
             case R.id.action_insert_dummy_data:
                 insertProduct();
                 return true;
+            // Respond to a click on the "Import catalog" menu option
+            case R.id.action_import_catalog:
+                Intent pick = new Intent(Intent.ACTION_GET_CONTENT);
+                pick.setType("*/*");
+                pick.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(pick, REQUEST_IMPORT_CATALOG);
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllProducts();
@@ -169,33 +265,113 @@ public class InventoryActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_IMPORT_CATALOG || resultCode != RESULT_OK || data == null) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+
+        final Uri catalogUri = data.getData();
+        int format = ProductImporter.formatOf(getContentResolver().getType(catalogUri));
+        if (format == -1) {
+            format = ProductImporter.formatOf(catalogUri.getLastPathSegment());
+        }
+        if (format == -1) {
+            Toast.makeText(this, "Choose a CSV or JSON file", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Import on a background thread; the list updates itself as batches are committed
+        final int catalogFormat = format;
+        final ProductImporter importer = new ProductImporter(getApplicationContext().getContentResolver());
+        final Context appContext = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    ProductImporter.Result result = importer.importFrom(catalogUri, catalogFormat, null);
+                    message = result.rowsImported + " products imported, " + result.rowsRejected + " rejected";
+                    for (String rejection : result.rejections) {
+                        Log.w(LOG_TAG, rejection);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.e(LOG_TAG, "Cannot import " + catalogUri, e);
+                    message = "Import failed";
+                }
+                final String toast = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(appContext, toast, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "ProductImporter").start();
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
         // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY };
+        // The list's own projection lets the first page come from the provider's prefetch
+        String[] projection = ProductEntry.LIST_PROJECTION;
+
+        // Each loader reads one page, starting after the last product of the previous page
+        Uri pageUri = bundle == null
+                ? ProductEntry.buildPageUri(PAGE_SIZE)
+                : ProductEntry.buildPageUri(PAGE_SIZE, bundle.getLong(ARG_AFTER_ID));
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
-                ProductEntry.CONTENT_URI,   // Provider content URI to query
+                pageUri,                // Provider content URI to query
                 projection,             // Columns to include in the resulting Cursor
                 null,                   // No selection clause
                 null,                   // No selection arguments
-                null);                  // Default sort order
+                null);                  // Sorted by _ID, the paging key
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link PetCursorAdapter} with this new cursor containing updated pet data
-        mCursorAdapter.swapCursor(data);
+        int page = loader.getId() - PRODUCT_LOADER;
+        if (page > mPages.size()) {
+            // The page before it is not shown yet, so there is no place for this one
+            return;
+        }
+        List<Product> products = readPage(data);
+        long endId = products.isEmpty() ? -1 : products.get(products.size() - 1).getId();
+
+        if (page == mPages.size()) {
+            mPages.add(products);
+            mPageEndIds.add(endId);
+        } else {
+            mPages.set(page, products);
+            // If a reloaded page now ends somewhere else, the pages after it would overlap it
+            // or leave a gap, so drop them and let scrolling load them again
+            if (mPageEndIds.set(page, endId) != endId) {
+                dropPagesAfter(page);
+            }
+        }
+
+        // Update {@link ProductListAdapter} with all pages loaded so far
+        showPages();
+
+        // Launch is complete once the first page is on screen; scripts/cold-start.sh measures it
+        if (!mReportedFullyDrawn && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mReportedFullyDrawn = true;
+            reportFullyDrawn();
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        // Callback called when the data needs to be deleted; pages after this one go with it
+        int page = loader.getId() - PRODUCT_LOADER;
+        if (page < mPages.size()) {
+            dropPagesAfter(page);
+            mPages.remove(page);
+            mPageEndIds.remove(page);
+            showPages();
+        }
     }
-}
\ No newline at end of file
+}
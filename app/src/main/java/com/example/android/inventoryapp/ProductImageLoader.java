@@ -0,0 +1,304 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductImageStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads product images into ImageViews off the main thread.
+ * Images are decoded at the smallest power-of-two sample size that still fills the target view,
+ * kept in a memory cache bounded to an eighth of the heap, and saved as thumbnails on disk so
+ * that the next decode reads a small file instead of the full-size image. Both caches are
+ * keyed on the image reference stored with the product, which changes with every write of
+ * the image, so a replaced image is decoded again without checking the file.
+ * A view that is recycled for another product cancels the request it was waiting on.
+ */
+public class ProductImageLoader {
+
+    private static final String LOG_TAG = ProductImageLoader.class.getSimpleName();
+
+    /** Directory under the app's cache directory holding the thumbnails */
+    private static final String THUMBNAIL_DIRECTORY = "thumbnails";
+
+    /** JPEG quality of the thumbnails written to disk */
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    /** Number of threads decoding images */
+    private static final int DECODE_THREADS = 2;
+
+    private static ProductImageLoader sInstance;
+
+    private final Context mContext;
+
+    private final File mThumbnailDirectory;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private final ExecutorService mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Return the loader shared by the whole app
+     */
+    public static synchronized ProductImageLoader get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ProductImageLoader(Context context) {
+        mContext = context;
+        mThumbnailDirectory = new File(context.getCacheDir(), THUMBNAIL_DIRECTORY);
+
+        // Size the memory cache in kilobytes, to an eighth of the maximum heap
+        int cacheSizeKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(cacheSizeKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+
+        mExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Show the image of the given product in the view, sized to the view, given the product's
+     * {@link ProductEntry#COLUMN_PRODUCT_IMAGE}. Nothing is shown for a product without an
+     * image in the store. Any request the view was still waiting on is cancelled
+     */
+    public void load(long productId, String imageReference, ImageView view) {
+        long version = ProductImageStore.getVersion(imageReference);
+        if (version == -1) {
+            cancel(view);
+            view.setImageDrawable(null);
+            return;
+        }
+
+        DisplayMetrics screen = mContext.getResources().getDisplayMetrics();
+        int width = targetSize(view.getWidth(),
+                view.getLayoutParams() == null ? 0 : view.getLayoutParams().width, screen.widthPixels);
+        int height = targetSize(view.getHeight(),
+                view.getLayoutParams() == null ? 0 : view.getLayoutParams().height, screen.heightPixels);
+        //A new image gets a new version, so a stale bitmap or thumbnail is never shown
+        String key = productId + "_" + width + "x" + height + "_" + version;
+
+        Request pending = (Request) view.getTag(R.id.image_request);
+        if (pending != null) {
+            if (pending.mKey.equals(key)) {
+                return;
+            }
+            pending.cancel();
+        }
+
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            view.setTag(R.id.image_request, null);
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        Request request = new Request(productId, key, width, height, view);
+        view.setTag(R.id.image_request, request);
+        request.mFuture = mExecutor.submit(request);
+    }
+
+    /**
+     * Cancel the request the view is waiting on, e.g. when the view goes away
+     */
+    public void cancel(ImageView view) {
+        Request pending = (Request) view.getTag(R.id.image_request);
+        if (pending != null) {
+            pending.cancel();
+            view.setTag(R.id.image_request, null);
+        }
+    }
+
+    /**
+     * Return the size to decode for one dimension of a view: its measured size if it has been
+     * laid out, otherwise its fixed layout size, otherwise the screen size in that dimension
+     */
+    private static int targetSize(int measured, int layoutSize, int screenSize) {
+        if (measured > 0) {
+            return measured;
+        }
+        if (layoutSize > 0) {
+            return layoutSize;
+        }
+        return screenSize;
+    }
+
+    /**
+     * Return the largest power of two sample size that keeps the decoded image at least as
+     * large as the target in both dimensions
+     */
+    private static int calculateInSampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int inSampleSize = 1;
+        while (imageWidth / (inSampleSize * 2) >= width && imageHeight / (inSampleSize * 2) >= height) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Load of one image for one view. Runs on the decode threads and posts the result back
+     * to the main thread, where it is only shown if the view still wants this image
+     */
+    private class Request implements Runnable {
+
+        private final long mProductId;
+
+        /**
+         * Key of the image in the memory cache, also the name of its thumbnail
+         */
+        private final String mKey;
+
+        private final int mWidth;
+
+        private final int mHeight;
+
+        private final ImageView mView;
+
+        private volatile boolean mCancelled;
+
+        private Future<?> mFuture;
+
+        Request(long productId, String key, int width, int height, ImageView view) {
+            mProductId = productId;
+            mKey = key;
+            mWidth = width;
+            mHeight = height;
+            mView = view;
+        }
+
+        void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            final Bitmap bitmap = loadBitmap();
+            if (mCancelled) {
+                return;
+            }
+            if (bitmap != null) {
+                mMemoryCache.put(mKey, bitmap);
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled && mView.getTag(R.id.image_request) == Request.this) {
+                        mView.setTag(R.id.image_request, null);
+                        if (bitmap != null) {
+                            mView.setImageBitmap(bitmap);
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Read the thumbnail of this version of the image from disk if there is one, otherwise
+         * decode the image downsampled to the target size and save it as the thumbnail
+         */
+        private Bitmap loadBitmap() {
+            File thumbnail = new File(mThumbnailDirectory, mKey);
+            if (thumbnail.exists()) {
+                Bitmap bitmap = BitmapFactory.decodeFile(thumbnail.getPath());
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            }
+
+            try {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                decode(options);
+                if (options.outWidth <= 0 || options.outHeight <= 0 || mCancelled) {
+                    return null;
+                }
+
+                options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, mWidth, mHeight);
+                options.inJustDecodeBounds = false;
+                Bitmap bitmap = decode(options);
+                if (bitmap != null) {
+                    saveThumbnail(bitmap, thumbnail);
+                }
+                return bitmap;
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Cannot load the image of product " + mProductId, e);
+                return null;
+            }
+        }
+
+        /**
+         * Decode the image streamed by the provider with the given options
+         */
+        private Bitmap decode(BitmapFactory.Options options) throws IOException {
+            InputStream in = mContext.getContentResolver().openInputStream(ProductEntry.buildImageUri(mProductId));
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        }
+
+        private void saveThumbnail(Bitmap bitmap, File thumbnail) {
+            if (!mThumbnailDirectory.isDirectory() && !mThumbnailDirectory.mkdirs()) {
+                return;
+            }
+            try {
+                FileOutputStream out = new FileOutputStream(thumbnail);
+                try {
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Cannot save the thumbnail of product " + mProductId, e);
+                thumbnail.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.inventoryapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.example.android.inventoryapp.data.Product;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * RecyclerView adapter for the inventory list.
+ * Each list item keeps its views in a ViewHolder, so binding a row only sets text.
+ * A new list is compared with the one on screen by DiffUtil on a background thread, matching
+ * rows by _ID and content hash, and only the rows that changed are rebound.
+ */
+public class ProductListAdapter extends RecyclerView.Adapter<ProductListAdapter.ViewHolder> {
+
+    /**
+     * Receives clicks on list items
+     */
+    public interface OnProductClickListener {
+        void onProductClick(long id);
+    }
+
+    /** Thread computing the differences between lists */
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final OnProductClickListener mListener;
+
+    /** Products on screen */
+    private List<Product> mProducts = Collections.emptyList();
+
+    /** Content hash of each product on screen */
+    private int[] mHashes = new int[0];
+
+    /** Incremented by every submitted list, so a diff finishing after a newer submit is dropped */
+    private int mGeneration;
+
+    public ProductListAdapter(OnProductClickListener listener) {
+        mListener = listener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given products. The list must not be modified afterwards
+     */
+    public void submitList(final List<Product> products) {
+        final int generation = ++mGeneration;
+        final List<Product> oldProducts = mProducts;
+        final int[] oldHashes = mHashes;
+
+        if (oldProducts.isEmpty() || products.isEmpty()) {
+            mProducts = products;
+            mHashes = contentHashes(products);
+            notifyDataSetChanged();
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int[] newHashes = contentHashes(products);
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return oldProducts.size();
+                    }
+
+                    @Override
+                    public int getNewListSize() {
+                        return products.size();
+                    }
+
+                    @Override
+                    public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                        return oldProducts.get(oldPosition).getId() == products.get(newPosition).getId();
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        return oldHashes[oldPosition] == newHashes[newPosition]
+                                && sameContents(oldProducts.get(oldPosition), products.get(newPosition));
+                    }
+                }, false);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mProducts = products;
+                        mHashes = newHashes;
+                        result.dispatchUpdatesTo(ProductListAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        Product product = mProducts.get(position);
+        holder.mId = product.getId();
+        holder.mNameTextView.setText(product.getName());
+        holder.mPriceTextView.setText(Integer.toString(product.getPrice()));
+        holder.mQuantityTextView.setText(Integer.toString(product.getQuantity()));
+    }
+
+    @Override
+    public int getItemCount() {
+        return mProducts.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mProducts.get(position).getId();
+    }
+
+    /**
+     * Hash the columns shown in the list, so unchanged rows can be recognized with one comparison
+     */
+    private static int[] contentHashes(List<Product> products) {
+        int[] hashes = new int[products.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            Product product = products.get(i);
+            int hash = product.getName() == null ? 0 : product.getName().hashCode();
+            hash = 31 * hash + product.getPrice();
+            hash = 31 * hash + product.getQuantity();
+            hashes[i] = hash;
+        }
+        return hashes;
+    }
+
+    private static boolean sameContents(Product a, Product b) {
+        return TextUtils.equals(a.getName(), b.getName())
+                && a.getPrice() == b.getPrice()
+                && a.getQuantity() == b.getQuantity();
+    }
+
+    /**
+     * Views of one list item, looked up once when the item is created
+     */
+    class ViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView mNameTextView;
+        final TextView mPriceTextView;
+        final TextView mQuantityTextView;
+
+        long mId;
+
+        ViewHolder(View view) {
+            super(view);
+            mNameTextView = (TextView) view.findViewById(R.id.name);
+            mPriceTextView = (TextView) view.findViewById(R.id.price);
+            mQuantityTextView = (TextView) view.findViewById(R.id.quantity);
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    mListener.onProductClick(mId);
+                }
+            });
+        }
+    }
+}
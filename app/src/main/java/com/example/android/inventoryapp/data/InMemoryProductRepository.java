@@ -0,0 +1,125 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteConstraintException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * {@link ProductRepository} holding products in a sorted map, for JVM tests and as a baseline
+ * to compare the SQLite engine against. Products are copied on the way in and out, so callers
+ * cannot change stored products behind the repository's back. Every method holds the
+ * repository's lock, which makes each one atomic.
+ */
+
+public class InMemoryProductRepository implements ProductRepository {
+
+    private final TreeMap<Long, Product> mProducts = new TreeMap<Long, Product>();
+
+    /**
+     * Largest ID ever used; like AUTOINCREMENT, IDs of deleted products are not reused
+     */
+    private long mLastId;
+
+    @Override
+    public synchronized long insert(Product product) {
+        ProductValidator.validateProduct(product);
+        return store(product);
+    }
+
+    @Override
+    public synchronized int insertAll(List<Product> products) {
+        Set<Long> ids = new HashSet<Long>();
+        for (Product product : products) {
+            ProductValidator.validateProduct(product);
+            long id = product.getId();
+            if (id != 0 && (mProducts.containsKey(id) || !ids.add(id))) {
+                //Fail before storing anything, as the SQLite engine rolls back its transaction
+                throw new SQLiteConstraintException("Product ID " + id + " is already taken");
+            }
+        }
+        for (Product product : products) {
+            store(product);
+        }
+        return products.size();
+    }
+
+    @Override
+    public synchronized Product get(long id) {
+        Product product = mProducts.get(id);
+        return product == null ? null : copy(product, id);
+    }
+
+    @Override
+    public synchronized List<Product> page(long afterId, int limit) {
+        List<Product> page = new ArrayList<Product>(Math.min(limit, mProducts.size()));
+        for (Product product : mProducts.tailMap(afterId, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(copy(product, product.getId()));
+        }
+        return page;
+    }
+
+    @Override
+    public synchronized int adjustQuantity(long id, int delta) {
+        Product product = mProducts.get(id);
+        if (product == null || (long) product.getQuantity() + delta < 0) {
+            return -1;
+        }
+        product.setQuantity(product.getQuantity() + delta);
+        return product.getQuantity();
+    }
+
+    @Override
+    public synchronized boolean update(Product product) {
+        ProductValidator.validateProduct(product);
+        if (!mProducts.containsKey(product.getId())) {
+            return false;
+        }
+        mProducts.put(product.getId(), copy(product, product.getId()));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean delete(long id) {
+        return mProducts.remove(id) != null;
+    }
+
+    @Override
+    public synchronized int count() {
+        return mProducts.size();
+    }
+
+    /**
+     * Store a copy of a validated product under its own ID, or the next one if that is 0.
+     * Return the ID, or -1 if the ID is already taken
+     */
+    private long store(Product product) {
+        long id = product.getId() != 0 ? product.getId() : mLastId + 1;
+        if (mProducts.containsKey(id)) {
+            return -1;
+        }
+        mProducts.put(id, copy(product, id));
+        mLastId = Math.max(mLastId, id);
+        return id;
+    }
+
+    private static Product copy(Product product, long id) {
+        Product copy = new Product();
+        copy.setId(id);
+        copy.setName(product.getName());
+        copy.setBrand(product.getBrand());
+        copy.setPrice(product.getPrice());
+        copy.setQuantity(product.getQuantity());
+        copy.setImage(product.getImage());
+        copy.setSupplierName(product.getSupplierName());
+        copy.setSupplierPhone(product.getSupplierPhone());
+        copy.setSupplierEmail(product.getSupplierEmail());
+        return copy;
+    }
+}
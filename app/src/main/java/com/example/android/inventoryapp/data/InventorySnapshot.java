@@ -0,0 +1,629 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Column-oriented copy of the inventory for reports that scan every product.
+ * Prices and quantities are kept in primitive arrays, and brands and supplier names as codes
+ * into dictionaries of their distinct values, so a scan reads a few arrays and allocates
+ * nothing per product. Large scans are split across one thread per core.
+ * <p>
+ * The snapshot is loaded through ProductProvider and, once {@link #startWatching} is called,
+ * follows its change notifications: a change to one product re-reads that product, and a
+ * change to the whole inventory reloads everything in the background while scans keep
+ * reading the previous copy. Reloads are spaced at least MIN_RELOAD_INTERVAL_MILLIS apart, so
+ * a burst of writes costs one reload rather than one per notification. Rows are in _ID order,
+ * so new products are appended and deleted ones are marked dead until enough of them pile up
+ * to be worth compacting.
+ */
+
+public class InventorySnapshot {
+
+    private static final String LOG_TAG = InventorySnapshot.class.getSimpleName();
+
+    /**
+     * Products read per provider query while loading
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * Scans of fewer rows than this per core run on the calling thread alone
+     */
+    private static final int MIN_ROWS_PER_TASK = 32 * 1024;
+
+    /**
+     * Least time between the start of a reload that follows a change to the whole inventory
+     * and the end of the load before it
+     */
+    private static final long MIN_RELOAD_INTERVAL_MILLIS = 2000;
+
+    /**
+     * Brand code of a deleted row
+     */
+    private static final int DEAD = -1;
+
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_BRAND,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_SUPPLIER_NAME };
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Threads running the parts of a scan, shared by every snapshot
+     */
+    private static final ExecutorService sScanExecutor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, LOG_TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ContentResolver mResolver;
+
+    private final int mMinRowsPerTask;
+
+    private final int mMaxParts;
+
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /**
+     * Held for the whole of a load or a row refresh. A refresh waits for the load in progress
+     * and then re-reads its product, instead of changing the columns the load is about to
+     * replace with rows it may have read before the change
+     */
+    private final Object mRefreshLock = new Object();
+
+    /**
+     * The current columns; replaced as a whole by a reload, changed in place by row updates
+     */
+    private Columns mColumns = new Columns(0);
+
+    private HandlerThread mWatchThread;
+
+    private ContentObserver mObserver;
+
+    private Handler mWatchHandler;
+
+    /**
+     * True while a reload is posted to the watch thread; only used on that thread
+     */
+    private boolean mReloadPending;
+
+    private volatile long mLastLoadMillis;
+
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            mReloadPending = false;
+            load();
+        }
+    };
+
+    public InventorySnapshot(ContentResolver resolver) {
+        this(resolver, MIN_ROWS_PER_TASK, THREADS);
+    }
+
+    /**
+     * Create a snapshot that splits scans of at least minRowsPerTask rows per part into at
+     * most maxParts parts
+     */
+    InventorySnapshot(ContentResolver resolver, int minRowsPerTask, int maxParts) {
+        mResolver = resolver;
+        mMinRowsPerTask = minRowsPerTask;
+        mMaxParts = maxParts;
+    }
+
+    /**
+     * Read the whole inventory from the provider, replacing the current contents.
+     * Call from a background thread
+     */
+    public void load() {
+        synchronized (mRefreshLock) {
+            loadLocked();
+            mLastLoadMillis = SystemClock.uptimeMillis();
+        }
+    }
+
+    private void loadLocked() {
+        Columns columns = new Columns(PAGE_SIZE);
+        long afterId = 0;
+        while (true) {
+            Cursor cursor = mResolver.query(ProductEntry.buildPageUri(PAGE_SIZE, afterId), PROJECTION,
+                    null, null, null);
+            if (cursor == null) {
+                return;
+            }
+            int count;
+            try {
+                count = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    afterId = cursor.getLong(0);
+                    columns.append(afterId, cursor.getString(1), cursor.getInt(2), cursor.getInt(3),
+                            cursor.getString(4));
+                }
+            } finally {
+                cursor.close();
+            }
+            if (count < PAGE_SIZE) {
+                break;
+            }
+        }
+
+        mLock.writeLock().lock();
+        try {
+            mColumns = columns;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Keep the snapshot current by following the provider's change notifications, handled
+     * on a background thread of the snapshot's own
+     */
+    public synchronized void startWatching() {
+        if (mObserver != null) {
+            return;
+        }
+        mWatchThread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mWatchThread.start();
+        mWatchHandler = new Handler(mWatchThread.getLooper());
+        mReloadPending = false;
+        mObserver = new ContentObserver(mWatchHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                refresh(uri);
+            }
+        };
+        mResolver.registerContentObserver(ProductEntry.CONTENT_URI, true, mObserver);
+    }
+
+    public synchronized void stopWatching() {
+        if (mObserver == null) {
+            return;
+        }
+        mResolver.unregisterContentObserver(mObserver);
+        mWatchHandler.removeCallbacks(mReload);
+        mWatchThread.quit();
+        mObserver = null;
+        mWatchHandler = null;
+        mWatchThread = null;
+    }
+
+    /**
+     * Bring the snapshot up to date after a change to the given URI: re-read one product for
+     * a product URI, otherwise schedule a reload of everything. Runs on the watch thread
+     */
+    private void refresh(Uri uri) {
+        List<String> segments = uri == null ? null : uri.getPathSegments();
+        if (segments == null || segments.size() != 2 || !ProductContract.PATH_INVENTORY.equals(segments.get(0))) {
+            scheduleReload();
+            return;
+        }
+        long id;
+        try {
+            id = ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            scheduleReload();
+            return;
+        }
+        synchronized (mRefreshLock) {
+            refreshRow(id);
+        }
+    }
+
+    /**
+     * Post a reload to the watch thread unless one is already pending, no sooner than
+     * MIN_RELOAD_INTERVAL_MILLIS after the last load ended
+     */
+    private void scheduleReload() {
+        if (mReloadPending) {
+            return;
+        }
+        mReloadPending = true;
+        long wait = mLastLoadMillis + MIN_RELOAD_INTERVAL_MILLIS - SystemClock.uptimeMillis();
+        mWatchHandler.postDelayed(mReload, Math.max(0, wait));
+    }
+
+    private void refreshRow(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), PROJECTION,
+                null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        boolean exists;
+        String brand = null;
+        int price = 0;
+        int quantity = 0;
+        String supplier = null;
+        try {
+            exists = cursor.moveToFirst();
+            if (exists) {
+                brand = cursor.getString(1);
+                price = cursor.getInt(2);
+                quantity = cursor.getInt(3);
+                supplier = cursor.getString(4);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        mLock.writeLock().lock();
+        try {
+            if (exists) {
+                mColumns.put(id, brand, price, quantity, supplier);
+            } else {
+                mColumns.remove(id);
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return the number of products
+     */
+    public int size() {
+        mLock.readLock().lock();
+        try {
+            return mColumns.mSize - mColumns.mDead;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return price times quantity summed over the products of each brand, by brand
+     */
+    public Map<String, Long> stockValueByBrand() {
+        mLock.readLock().lock();
+        try {
+            final Columns columns = mColumns;
+            final int brandCount = columns.mBrandDictionary.size();
+            long[] values = scan(columns, new RangeScan<long[]>() {
+                @Override
+                public long[] scan(int from, int to) {
+                    long[] partial = new long[brandCount];
+                    int[] brands = columns.mBrands;
+                    int[] prices = columns.mPrices;
+                    int[] quantities = columns.mQuantities;
+                    for (int row = from; row < to; row++) {
+                        int brand = brands[row];
+                        if (brand != DEAD) {
+                            partial[brand] += (long) prices[row] * quantities[row];
+                        }
+                    }
+                    return partial;
+                }
+
+                @Override
+                public long[] combine(long[] first, long[] second) {
+                    for (int i = 0; i < first.length; i++) {
+                        first[i] += second[i];
+                    }
+                    return first;
+                }
+            });
+
+            Map<String, Long> byBrand = new LinkedHashMap<String, Long>();
+            for (int code = 0; code < brandCount; code++) {
+                if (values[code] != 0) {
+                    byBrand.put(columns.mBrandDictionary.get(code), values[code]);
+                }
+            }
+            return byBrand;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the _IDs of the products with fewer than reorderPoint units in stock, in _ID order
+     */
+    public long[] idsBelowReorderPoint(final int reorderPoint) {
+        mLock.readLock().lock();
+        try {
+            final Columns columns = mColumns;
+            return scan(columns, new RangeScan<long[]>() {
+                @Override
+                public long[] scan(int from, int to) {
+                    //Count the matches first, so the part's result is allocated once at its size
+                    int[] brands = columns.mBrands;
+                    int[] quantities = columns.mQuantities;
+                    int count = 0;
+                    for (int row = from; row < to; row++) {
+                        if (brands[row] != DEAD && quantities[row] < reorderPoint) {
+                            count++;
+                        }
+                    }
+                    long[] ids = new long[count];
+                    long[] rowIds = columns.mIds;
+                    int i = 0;
+                    for (int row = from; row < to && i < count; row++) {
+                        if (brands[row] != DEAD && quantities[row] < reorderPoint) {
+                            ids[i++] = rowIds[row];
+                        }
+                    }
+                    return ids;
+                }
+
+                @Override
+                public long[] combine(long[] first, long[] second) {
+                    long[] ids = Arrays.copyOf(first, first.length + second.length);
+                    System.arraycopy(second, 0, ids, first.length, second.length);
+                    return ids;
+                }
+            });
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the number of products from each supplier, by supplier name
+     */
+    public Map<String, Integer> productCountBySupplier() {
+        mLock.readLock().lock();
+        try {
+            final Columns columns = mColumns;
+            final int supplierCount = columns.mSupplierDictionary.size();
+            long[] counts = scan(columns, new RangeScan<long[]>() {
+                @Override
+                public long[] scan(int from, int to) {
+                    long[] partial = new long[supplierCount];
+                    int[] brands = columns.mBrands;
+                    int[] suppliers = columns.mSuppliers;
+                    for (int row = from; row < to; row++) {
+                        if (brands[row] != DEAD) {
+                            partial[suppliers[row]]++;
+                        }
+                    }
+                    return partial;
+                }
+
+                @Override
+                public long[] combine(long[] first, long[] second) {
+                    for (int i = 0; i < first.length; i++) {
+                        first[i] += second[i];
+                    }
+                    return first;
+                }
+            });
+
+            Map<String, Integer> bySupplier = new LinkedHashMap<String, Integer>();
+            for (int code = 0; code < supplierCount; code++) {
+                if (counts[code] != 0) {
+                    bySupplier.put(columns.mSupplierDictionary.get(code), (int) counts[code]);
+                }
+            }
+            return bySupplier;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scan of a range of rows whose results can be combined in row order
+     */
+    private interface RangeScan<T> {
+        T scan(int from, int to);
+
+        T combine(T first, T second);
+    }
+
+    /**
+     * Run the scan over every row, split into one part per core when there are enough rows.
+     * Must be called holding the read lock
+     */
+    private <T> T scan(Columns columns, final RangeScan<T> rangeScan) {
+        int size = columns.mSize;
+        int parts = Math.min(mMaxParts, size / mMinRowsPerTask);
+        if (parts <= 1) {
+            return rangeScan.scan(0, size);
+        }
+
+        List<Future<T>> futures = new ArrayList<Future<T>>(parts);
+        int partSize = (size + parts - 1) / parts;
+        for (int from = partSize; from < size; from += partSize) {
+            final int start = from;
+            final int end = Math.min(size, from + partSize);
+            futures.add(sScanExecutor.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    return rangeScan.scan(start, end);
+                }
+            }));
+        }
+
+        //The calling thread scans the first part itself instead of waiting idle
+        T result = rangeScan.scan(0, Math.min(size, partSize));
+        try {
+            for (Future<T> future : futures) {
+                result = rangeScan.combine(result, future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning the inventory", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Inventory scan failed", e.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * Values of one dictionary-encoded column: each distinct value gets the next code
+     */
+    private static class Dictionary {
+
+        private final ArrayList<String> mValues = new ArrayList<String>();
+
+        private final HashMap<String, Integer> mCodes = new HashMap<String, Integer>();
+
+        int encode(String value) {
+            Integer code = mCodes.get(value);
+            if (code == null) {
+                code = mValues.size();
+                mValues.add(value);
+                mCodes.put(value, code);
+            }
+            return code;
+        }
+
+        String get(int code) {
+            return mValues.get(code);
+        }
+
+        int size() {
+            return mValues.size();
+        }
+    }
+
+    /**
+     * The column arrays, in _ID order. Only the first mSize entries are used
+     */
+    static class Columns {
+
+        long[] mIds;
+        int[] mPrices;
+        int[] mQuantities;
+
+        /**
+         * Brand codes; DEAD marks a row whose product has been deleted
+         */
+        int[] mBrands;
+        int[] mSuppliers;
+
+        int mSize;
+
+        /**
+         * Number of dead rows
+         */
+        int mDead;
+
+        final Dictionary mBrandDictionary = new Dictionary();
+
+        final Dictionary mSupplierDictionary = new Dictionary();
+
+        Columns(int capacity) {
+            mIds = new long[capacity];
+            mPrices = new int[capacity];
+            mQuantities = new int[capacity];
+            mBrands = new int[capacity];
+            mSuppliers = new int[capacity];
+        }
+
+        void append(long id, String brand, int price, int quantity, String supplier) {
+            if (mSize == mIds.length) {
+                int capacity = Math.max(16, mSize * 2);
+                mIds = Arrays.copyOf(mIds, capacity);
+                mPrices = Arrays.copyOf(mPrices, capacity);
+                mQuantities = Arrays.copyOf(mQuantities, capacity);
+                mBrands = Arrays.copyOf(mBrands, capacity);
+                mSuppliers = Arrays.copyOf(mSuppliers, capacity);
+            }
+            mIds[mSize] = id;
+            set(mSize, brand, price, quantity, supplier);
+            mSize++;
+        }
+
+        /**
+         * Insert or replace the row of a product
+         */
+        void put(long id, String brand, int price, int quantity, String supplier) {
+            int row = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (row >= 0) {
+                if (mBrands[row] == DEAD) {
+                    mDead--;
+                }
+                set(row, brand, price, quantity, supplier);
+            } else if (mSize == 0 || id > mIds[mSize - 1]) {
+                append(id, brand, price, quantity, supplier);
+            } else {
+                //Products only get new, larger _IDs, but an explicit _ID could land in the middle
+                int insertAt = -row - 1;
+                append(0, null, 0, 0, null);
+                int moved = mSize - 1 - insertAt;
+                System.arraycopy(mIds, insertAt, mIds, insertAt + 1, moved);
+                System.arraycopy(mPrices, insertAt, mPrices, insertAt + 1, moved);
+                System.arraycopy(mQuantities, insertAt, mQuantities, insertAt + 1, moved);
+                System.arraycopy(mBrands, insertAt, mBrands, insertAt + 1, moved);
+                System.arraycopy(mSuppliers, insertAt, mSuppliers, insertAt + 1, moved);
+                mIds[insertAt] = id;
+                set(insertAt, brand, price, quantity, supplier);
+            }
+        }
+
+        /**
+         * Mark the row of a product dead, compacting once a quarter of the rows are dead
+         */
+        void remove(long id) {
+            int row = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (row < 0 || mBrands[row] == DEAD) {
+                return;
+            }
+            mBrands[row] = DEAD;
+            mDead++;
+            if (mDead * 4 > mSize) {
+                compact();
+            }
+        }
+
+        private void set(int row, String brand, int price, int quantity, String supplier) {
+            mPrices[row] = price;
+            mQuantities[row] = quantity;
+            mBrands[row] = mBrandDictionary.encode(brand);
+            mSuppliers[row] = mSupplierDictionary.encode(supplier);
+        }
+
+        private void compact() {
+            int live = 0;
+            for (int row = 0; row < mSize; row++) {
+                if (mBrands[row] != DEAD) {
+                    mIds[live] = mIds[row];
+                    mPrices[live] = mPrices[row];
+                    mQuantities[live] = mQuantities[row];
+                    mBrands[live] = mBrands[row];
+                    mSuppliers[live] = mSuppliers[row];
+                    live++;
+                }
+            }
+            mSize = live;
+            mDead = 0;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.inventoryapp.data;
+
+/**
+ * One row of the inventory table. Instances are mutable so that adapters can reuse a single
+ * Product for every row they bind; see {@link ProductCodec}.
+ */
+
+public class Product {
+
+    private long mId;
+
+    private String mName;
+
+    private String mBrand;
+
+    private int mPrice;
+
+    private int mQuantity;
+
+    private String mImage;
+
+    private String mSupplierName;
+
+    private String mSupplierPhone;
+
+    private String mSupplierEmail;
+
+    public long getId() {
+        return mId;
+    }
+
+    public void setId(long id) {
+        mId = id;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void setName(String name) {
+        mName = name;
+    }
+
+    public String getBrand() {
+        return mBrand;
+    }
+
+    public void setBrand(String brand) {
+        mBrand = brand;
+    }
+
+    public int getPrice() {
+        return mPrice;
+    }
+
+    public void setPrice(int price) {
+        mPrice = price;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    public void setQuantity(int quantity) {
+        mQuantity = quantity;
+    }
+
+    public String getImage() {
+        return mImage;
+    }
+
+    public void setImage(String image) {
+        mImage = image;
+    }
+
+    public String getSupplierName() {
+        return mSupplierName;
+    }
+
+    public void setSupplierName(String supplierName) {
+        mSupplierName = supplierName;
+    }
+
+    public String getSupplierPhone() {
+        return mSupplierPhone;
+    }
+
+    public void setSupplierPhone(String supplierPhone) {
+        mSupplierPhone = supplierPhone;
+    }
+
+    public String getSupplierEmail() {
+        return mSupplierEmail;
+    }
+
+    public void setSupplierEmail(String supplierEmail) {
+        mSupplierEmail = supplierEmail;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.inventoryapp.data.ProductContract.Column;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of whole product rows keyed by _ID, used by ProductProvider to answer
+ * single product queries without going to SQLite.
+ * Every write invalidates the rows it touched. Because a query may read a row just before a
+ * write commits and try to cache it just after, rows are only cached if nothing was
+ * invalidated between the start of the read and the put.
+ */
+
+public class ProductCache {
+
+    /**
+     * Columns of a cached row, in table order
+     */
+    public static final String[] COLUMNS;
+
+    /**
+     * Position of each column in a cached row
+     */
+    private static final Map<String, Integer> COLUMN_POSITIONS = new HashMap<String, Integer>();
+
+    static {
+        COLUMNS = new String[ProductEntry.COLUMNS.length + 1];
+        COLUMNS[0] = ProductEntry._ID;
+        for (int i = 0; i < ProductEntry.COLUMNS.length; i++) {
+            COLUMNS[i + 1] = ProductEntry.COLUMNS[i].name;
+        }
+        for (int i = 0; i < COLUMNS.length; i++) {
+            COLUMN_POSITIONS.put(COLUMNS[i], i);
+        }
+    }
+
+    private final LruCache<Long, Object[]> mRows;
+
+    /**
+     * Incremented by every invalidation
+     */
+    private long mGeneration;
+
+    public ProductCache(int maxRows) {
+        mRows = new LruCache<Long, Object[]>(maxRows);
+    }
+
+    /**
+     * Return true if a query with the given projection can be answered from cached rows
+     */
+    public static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (!COLUMN_POSITIONS.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the cached product as a cursor with the given projection, or null if it is not cached
+     */
+    public Cursor get(long id, String[] projection) {
+        Object[] row = mRows.get(id);
+        return row == null ? null : toCursor(row, projection);
+    }
+
+    /**
+     * Return the value to pass to {@link #put} for a row that is about to be read
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the current row of a cursor queried with {@link #COLUMNS}, unless a write invalidated
+     * the cache since the given generation, and return the row as a cursor with the given projection
+     */
+    public Cursor put(long id, Cursor cursor, long generation, String[] projection) {
+        Object[] row = new Object[COLUMNS.length];
+        row[0] = cursor.getLong(0);
+        for (int i = 1; i < COLUMNS.length; i++) {
+            if (cursor.isNull(i)) {
+                continue;
+            }
+            row[i] = ProductEntry.COLUMNS[i - 1].type == Column.TYPE_INTEGER
+                    ? (Object) cursor.getLong(i) : cursor.getString(i);
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mRows.put(id, row);
+            }
+        }
+        return toCursor(row, projection);
+    }
+
+    /**
+     * Forget the cached row of one product
+     */
+    public synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Forget every cached row
+     */
+    public synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    public int getHitCount() {
+        return mRows.hitCount();
+    }
+
+    public int getMissCount() {
+        return mRows.missCount();
+    }
+
+    public int getSize() {
+        return mRows.size();
+    }
+
+    /**
+     * Copy the projected values of a cached row into a one row cursor
+     */
+    private static Cursor toCursor(Object[] row, String[] projection) {
+        if (projection == null) {
+            MatrixCursor cursor = new MatrixCursor(COLUMNS, 1);
+            cursor.addRow(row);
+            return cursor;
+        }
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            values[i] = row[COLUMN_POSITIONS.get(projection[i])];
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * Sends the change notifications of ProductProvider, coalescing bursts.
+ * A change that follows a quiet period is delivered right away and opens a short window;
+ * changes made during the window are held back and delivered together when it closes.
+ * If they were all to the same URI, that URI is notified once; otherwise the parent URI is,
+ * which reaches every observer of the individual rows with a single notification.
+ */
+
+public class ProductChangeNotifier {
+
+    private final ContentResolver mResolver;
+
+    /**
+     * URI notified when changes to several different URIs are coalesced
+     */
+    private final Uri mParentUri;
+
+    private final long mWindowMillis;
+
+    private final Handler mHandler;
+
+    /**
+     * URI to notify when the current window closes, or null if nothing changed during it
+     */
+    private Uri mPendingUri;
+
+    /**
+     * Uptime at which the current window closes
+     */
+    private long mWindowEnd;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public ProductChangeNotifier(ContentResolver resolver, Uri parentUri, long windowMillis) {
+        mResolver = resolver;
+        mParentUri = parentUri;
+        mWindowMillis = windowMillis;
+
+        HandlerThread thread = new HandlerThread("ProductChangeNotifier", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Return the handler of the notifier's thread, for callbacks that end in a notification
+     */
+    Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Notify observers of the given URI, now or when the current window closes
+     */
+    public void notifyChange(Uri uri) {
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            if (mPendingUri == null && now >= mWindowEnd) {
+                mWindowEnd = now + mWindowMillis;
+            } else {
+                if (mPendingUri == null) {
+                    mPendingUri = uri;
+                    mHandler.postAtTime(mFlush, mWindowEnd);
+                } else if (!mPendingUri.equals(uri)) {
+                    mPendingUri = mParentUri;
+                }
+                return;
+            }
+        }
+        mResolver.notifyChange(uri, null);
+    }
+
+    /**
+     * Deliver the changes held back during the window that just closed, and open a new window
+     * so that a sustained burst is delivered at most once per window
+     */
+    private void flush() {
+        Uri uri;
+        synchronized (this) {
+            uri = mPendingUri;
+            mPendingUri = null;
+            mWindowEnd = SystemClock.uptimeMillis() + mWindowMillis;
+        }
+        if (uri != null) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+}
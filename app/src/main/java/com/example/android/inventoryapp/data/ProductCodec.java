@@ -0,0 +1,106 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Maps rows of a product cursor to {@link Product} objects.
+ * The column indexes are looked up once, when the codec is created for a cursor, instead of
+ * once per row. Columns missing from the cursor's projection are left at their default value.
+ */
+
+public class ProductCodec {
+
+    private final Cursor mCursor;
+
+    private final int mIdIndex;
+    private final int mNameIndex;
+    private final int mBrandIndex;
+    private final int mPriceIndex;
+    private final int mQuantityIndex;
+    private final int mImageIndex;
+    private final int mSupplierNameIndex;
+    private final int mSupplierPhoneIndex;
+    private final int mSupplierEmailIndex;
+
+    public ProductCodec(Cursor cursor) {
+        mCursor = cursor;
+        mIdIndex = cursor.getColumnIndex(ProductEntry._ID);
+        mNameIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
+        mBrandIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_BRAND);
+        mPriceIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
+        mQuantityIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        mImageIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE);
+        mSupplierNameIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_NAME);
+        mSupplierPhoneIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_PHONE);
+        mSupplierEmailIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_EMAIL);
+    }
+
+    /**
+     * Return true if this codec was created for the given cursor, so its column indexes apply
+     */
+    public boolean isFor(Cursor cursor) {
+        return mCursor == cursor;
+    }
+
+    /**
+     * Read the current row of the cursor into a new Product
+     */
+    public Product read(Cursor cursor) {
+        return read(cursor, new Product());
+    }
+
+    /**
+     * Read the current row of the cursor into the given Product and return it
+     */
+    public Product read(Cursor cursor, Product product) {
+        product.setId(mIdIndex == -1 ? 0 : cursor.getLong(mIdIndex));
+        product.setName(mNameIndex == -1 ? null : cursor.getString(mNameIndex));
+        product.setBrand(mBrandIndex == -1 ? null : cursor.getString(mBrandIndex));
+        product.setPrice(mPriceIndex == -1 ? 0 : cursor.getInt(mPriceIndex));
+        product.setQuantity(mQuantityIndex == -1 ? 0 : cursor.getInt(mQuantityIndex));
+        product.setImage(mImageIndex == -1 ? null : cursor.getString(mImageIndex));
+        product.setSupplierName(mSupplierNameIndex == -1 ? null : cursor.getString(mSupplierNameIndex));
+        product.setSupplierPhone(mSupplierPhoneIndex == -1 ? null : cursor.getString(mSupplierPhoneIndex));
+        product.setSupplierEmail(mSupplierEmailIndex == -1 ? null : cursor.getString(mSupplierEmailIndex));
+        return product;
+    }
+
+    /**
+     * Return the product described by content values that have passed
+     * {@link ProductValidator#validateInsert}. Its ID is 0 unless the values carry an _ID
+     */
+    public static Product fromContentValues(ContentValues values) {
+        Product product = new Product();
+        Long id = values.getAsLong(ProductEntry._ID);
+        product.setId(id == null ? 0 : id);
+        product.setName(values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+        product.setBrand(values.getAsString(ProductEntry.COLUMN_PRODUCT_BRAND));
+        product.setPrice(values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE));
+        product.setQuantity(values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        product.setImage(values.getAsString(ProductEntry.COLUMN_PRODUCT_IMAGE));
+        product.setSupplierName(values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME));
+        product.setSupplierPhone(values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE));
+        product.setSupplierEmail(values.getAsString(ProductEntry.COLUMN_SUPPLIER_EMAIL));
+        return product;
+    }
+
+    /**
+     * Return the content values to insert the given product, keyed by the columns of
+     * {@link ProductEntry#COLUMNS}
+     */
+    public static ContentValues toContentValues(Product product) {
+        ContentValues values = new ContentValues(ProductEntry.COLUMNS.length);
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, product.getName());
+        values.put(ProductEntry.COLUMN_PRODUCT_BRAND, product.getBrand());
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, product.getPrice());
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, product.getQuantity());
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, product.getImage());
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, product.getSupplierName());
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, product.getSupplierPhone());
+        values.put(ProductEntry.COLUMN_SUPPLIER_EMAIL, product.getSupplierEmail());
+        return values;
+    }
+}
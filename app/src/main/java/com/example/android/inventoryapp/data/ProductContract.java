@@ -1,6 +1,7 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -18,6 +19,78 @@ public class ProductContract {
 
     public static final String PATH_INVENTORY = "inventory";
 
+    public static final String PATH_ADJUST = "adjust";
+
+    public static final String PATH_SEARCH = "search";
+
+    public static final String PATH_IMAGE = "image";
+
+    public static final String PATH_STATS = "stats";
+
+    public static final String PATH_MOVEMENTS = "movements";
+
+    public static final String PATH_EXPORT = "export";
+
+    public static final String PATH_METRICS = "metrics";
+
+    /**
+     * Provider method that atomically adds a delta to the quantity of one product.
+     * The argument is the product ID; the extras carry {@link ProductEntry#ADJUST_QUANTITY_DELTA}.
+     * The result holds the new quantity under {@link ProductEntry#COLUMN_PRODUCT_QUANTITY},
+     * or is empty if the product does not exist or the quantity would drop below zero
+     */
+    public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+
+    /**
+     * Provider method that reports how often single product queries were answered from the
+     * provider's row cache. The result holds {@link #CACHE_STATS_HITS}, {@link #CACHE_STATS_MISSES}
+     * and {@link #CACHE_STATS_SIZE}, the number of rows currently cached
+     */
+    public static final String METHOD_CACHE_STATS = "cache_stats";
+    public static final String CACHE_STATS_HITS = "hits";
+    public static final String CACHE_STATS_MISSES = "misses";
+    public static final String CACHE_STATS_SIZE = "size";
+
+    /**
+     * Provider method that sets how long a query must take, in milliseconds, to be written to
+     * the slow query log along with its plan. The argument is the threshold; a negative one
+     * turns the log off. The log is printed by dumpsys activity provider
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /**
+     * Provider method that points a product at the image just written for it and tells its
+     * observers. The argument is the product ID. Only needed before KitKat, where the provider
+     * cannot see the writer close the stream; call it after closing the stream from
+     * openOutputStream
+     */
+    public static final String METHOD_IMAGE_WRITTEN = "image_written";
+
+    /**
+     * Query parameters for reading the inventory one page at a time.
+     * Pages are addressed by the key of the last row of the previous page rather than by an
+     * offset, so reading any page costs the same no matter how deep into the list it is.
+     * Paged queries must be sorted by {@link ProductEntry#_ID} (the default) or by
+     * {@link ProductEntry#COLUMN_PRODUCT_NAME}; when sorting by name, pass both the name and
+     * the _ID of the last row, since names are not unique
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+    public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+
+    /**
+     * Query parameters limiting stock movements to those made at or after QUERY_PARAMETER_FROM_TIME
+     * and before QUERY_PARAMETER_TO_TIME, both in milliseconds since the epoch. Either may be left out
+     */
+    public static final String QUERY_PARAMETER_FROM_TIME = "from";
+    public static final String QUERY_PARAMETER_TO_TIME = "to";
+
+    /**
+     * Query parameter choosing the format of an export, {@link ProductEntry#EXPORT_FORMAT_CSV}
+     * (the default) or {@link ProductEntry#EXPORT_FORMAT_JSON}
+     */
+    public static final String QUERY_PARAMETER_FORMAT = "format";
+
 
     /** Inner class that defines constant values for the inventory database table
      * Each entry in the table will represent a single product
@@ -41,6 +114,24 @@ public class ProductContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INVENTORY;
 
+        /**
+         * The MIME type of the content Uri for the image of a single product
+         */
+        public static final String CONTENT_IMAGE_TYPE = "image/*";
+
+        /**
+         * Formats of an export of the whole inventory: CSV with a header row of column names,
+         * or one JSON object per line
+         */
+        public static final String EXPORT_FORMAT_CSV = "csv";
+        public static final String EXPORT_FORMAT_JSON = "ndjson";
+
+        /**
+         * The MIME types of the export URI in each format
+         */
+        public static final String CONTENT_EXPORT_CSV_TYPE = "text/csv";
+        public static final String CONTENT_EXPORT_JSON_TYPE = "application/x-ndjson";
+
         /**
          * Information contained within the database table:
          */
@@ -77,7 +168,8 @@ public class ProductContract {
         public final static String COLUMN_PRODUCT_QUANTITY = "quantity";
 
         /**
-         * Photo representing each product
+         * Reference to the photo representing each product. The image itself is stored as a file
+         * and read or written as a stream through {@link #buildImageUri(long)}
          * Type: TEXT
          */
         public final static String COLUMN_PRODUCT_IMAGE = "image";
@@ -89,5 +181,343 @@ public class ProductContract {
         public static final String COLUMN_SUPPLIER_NAME = "supplier_name";
         public static final String COLUMN_SUPPLIER_PHONE = "supplier_phone";
         public static final String COLUMN_SUPPLIER_EMAIL = "supplier_email";
+
+        /**
+         * Columns and page size of the inventory list. ProductProvider prefetches the first page
+         * of exactly this shape when it starts, so the list must ask for these to benefit
+         */
+        public static final String[] LIST_PROJECTION = {_ID, COLUMN_PRODUCT_NAME, COLUMN_PRODUCT_PRICE,
+                COLUMN_PRODUCT_QUANTITY};
+        public static final int LIST_PAGE_SIZE = 100;
+
+        /**
+         * Metadata of every product column a client may write, in table order.
+         * ProductProvider validates inserts and updates against it, and bulk inserts bind
+         * their values in this order
+         */
+        public static final Column[] COLUMNS = {
+                new Column(COLUMN_PRODUCT_NAME, Column.TYPE_TEXT, false, 0, 0,
+                        "Product requires a name"),
+                new Column(COLUMN_PRODUCT_BRAND, Column.TYPE_TEXT, false, 0, 0,
+                        "Product requires a brand"),
+                new Column(COLUMN_PRODUCT_PRICE, Column.TYPE_INTEGER, false, 0, Integer.MAX_VALUE,
+                        "Product requires a valid price"),
+                new Column(COLUMN_PRODUCT_QUANTITY, Column.TYPE_INTEGER, false, 0, Integer.MAX_VALUE,
+                        "Product requires a valid quantity"),
+                new Column(COLUMN_PRODUCT_IMAGE, Column.TYPE_TEXT, false, 0, 0,
+                        "Product requires an image"),
+                new Column(COLUMN_SUPPLIER_NAME, Column.TYPE_TEXT, false, 0, 0,
+                        "Product requires a supplier name"),
+                new Column(COLUMN_SUPPLIER_PHONE, Column.TYPE_TEXT, false, 0, 0,
+                        "Product requires a supplier phone number"),
+                new Column(COLUMN_SUPPLIER_EMAIL, Column.TYPE_TEXT, false, 0, 0,
+                        "Product requires a supplier email")
+        };
+
+        /**
+         * Key for the amount to add to the quantity of a product when updating its adjust URI.
+         * Use a negative value to remove stock; the adjustment is refused if the quantity
+         * would drop below zero
+         * Type: INTEGER
+         */
+        public static final String ADJUST_QUANTITY_DELTA = "delta";
+
+        /**
+         * Name of the full-text index over the name, brand and supplier name of each product.
+         * It is kept in sync with the inventory table by triggers; the docid of each entry
+         * is the _ID of its product
+         */
+        public final static String FTS_TABLE_NAME = "inventory_fts";
+
+        /**
+         * Name of the view that products are read from. It has the columns of the inventory
+         * table, except that its quantity adds the stock movements not yet compacted into the
+         * table's quantity, so it is always the current quantity
+         */
+        public final static String VIEW_NAME = "inventory_current";
+
+        /**
+         * Build the URI used to atomically adjust the quantity of a single product,
+         * for example content://com.example.android.inventoryapp/inventory/2/adjust
+         */
+        public static Uri buildAdjustUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_ADJUST).build();
+        }
+
+        /**
+         * Build the URI of the image of a single product, for use with
+         * ContentResolver.openInputStream and openOutputStream, for example
+         * content://com.example.android.inventoryapp/inventory/2/image.
+         * Before KitKat, call {@link ProductContract#METHOD_IMAGE_WRITTEN} after closing an
+         * output stream
+         */
+        public static Uri buildImageUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_IMAGE).build();
+        }
+
+        /**
+         * Build the URI of the stock movements of a single product, for example
+         * content://com.example.android.inventoryapp/inventory/2/movements
+         */
+        public static Uri buildMovementsUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_MOVEMENTS).build();
+        }
+
+        /**
+         * Build the URI of an export of the whole inventory in the given format, for use with
+         * ContentResolver.openInputStream, for example
+         * content://com.example.android.inventoryapp/inventory/export?format=csv
+         * From KitKat on, open it with ContentResolver.openFileDescriptor and call
+         * ParcelFileDescriptor.checkError after the last byte to know the export is complete
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_EXPORT)
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format).build();
+        }
+
+        /**
+         * Build the URI for the first page of the inventory, holding at most limit products
+         */
+        public static Uri buildPageUri(int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit)).build();
+        }
+
+        /**
+         * Build the URI for the page of at most limit products that follows the product
+         * with the given _ID, when sorting by _ID
+         */
+        public static Uri buildPageUri(int limit, long afterId) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId)).build();
+        }
+
+        /**
+         * Build the URI for the page of at most limit products that follows the product
+         * with the given name and _ID, when sorting by name
+         */
+        public static Uri buildPageUri(int limit, String afterName, long afterId) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_NAME, afterName)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId)).build();
+        }
+
+        /**
+         * Build the URI that searches products by (partial) name, brand or supplier name,
+         * for example content://com.example.android.inventoryapp/inventory/search/la%20mer
+         * Every word of the query is matched as a prefix and results come best match first
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+    }
+
+    /**
+     * Inner class that defines the inventory summary: a single row of totals over the
+     * inventory table, kept current by triggers so that reading it does not depend on the
+     * size of the catalog
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        /**
+         * Content Uri of the summary row
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the content Uri for the summary row
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        public final static String TABLE_NAME = "inventory_stats";
+
+        /**
+         * _ID of the only row of the table
+         */
+        public final static long ROW_ID = 1;
+
+        /**
+         * Products with fewer units in stock than this count as low on stock
+         */
+        public final static int LOW_STOCK_THRESHOLD = 5;
+
+        /**
+         * Number of products
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Units in stock, summed over all products
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNIT_COUNT = "unit_count";
+
+        /**
+         * Price times quantity, summed over all products
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_VALUE = "stock_value";
+
+        /**
+         * Number of products with fewer than LOW_STOCK_THRESHOLD units in stock
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+    }
+
+    /**
+     * Inner class that defines the stock movement ledger. Every change to the quantity of a
+     * product after it was created is appended to it as a movement; rows are never updated or
+     * deleted. The quantity column of the inventory table is a snapshot that movements are
+     * periodically compacted into, and {@link ProductEntry#VIEW_NAME} adds the rest
+     */
+    public static final class MovementEntry implements BaseColumns {
+
+        /**
+         * Content Uri of the movements of all products
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_MOVEMENTS);
+
+        /**
+         * The MIME type of the content Uri for a list of movements
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        public final static String TABLE_NAME = "stock_movements";
+
+        /**
+         * _ID of the product whose quantity changed
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Amount added to the quantity; negative when stock left
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELTA = "delta";
+
+        /**
+         * Why the quantity changed, one of the REASON constants
+         * Type: TEXT
+         */
+        public final static String COLUMN_REASON = "reason";
+
+        /**
+         * When the quantity changed, in milliseconds since the epoch
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIME = "time";
+
+        public final static String REASON_SALE = "sale";
+        public final static String REASON_RECEIVE = "receive";
+        public final static String REASON_EDIT = "edit";
+
+        /**
+         * Limit a movements URI, either CONTENT_URI or one built by ProductEntry.buildMovementsUri,
+         * to a time range in milliseconds since the epoch, from inclusive and to exclusive
+         */
+        public static Uri buildTimeRangeUri(Uri movementsUri, long from, long to) {
+            return movementsUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FROM_TIME, String.valueOf(from))
+                    .appendQueryParameter(QUERY_PARAMETER_TO_TIME, String.valueOf(to)).build();
+        }
+    }
+
+    /**
+     * Inner class that defines the latency metrics of the provider: one row per operation and
+     * URI pattern that has been called since the provider started. Latencies are in microseconds
+     * and are approximate, since they are read back from histogram buckets
+     */
+    public static final class MetricsEntry implements BaseColumns {
+
+        /**
+         * Content Uri of the metrics
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_METRICS);
+
+        /**
+         * The MIME type of the content Uri for the metrics
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        /**
+         * Provider method called: query, insert, bulkInsert, update, delete or call
+         * Type: TEXT
+         */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /**
+         * URI pattern the call matched, such as inventory or inventory/#
+         * Type: TEXT
+         */
+        public final static String COLUMN_URI = "uri";
+
+        /**
+         * Number of calls, and how many of them threw
+         * Type: INTEGER
+         */
+        public final static String COLUMN_COUNT = "count";
+        public final static String COLUMN_ERRORS = "errors";
+
+        /**
+         * Mean, median, 99th percentile and largest latency
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MEAN_MICROS = "mean_micros";
+        public final static String COLUMN_P50_MICROS = "p50_micros";
+        public final static String COLUMN_P99_MICROS = "p99_micros";
+        public final static String COLUMN_MAX_MICROS = "max_micros";
+
+        /**
+         * Every column, in the order returned when a query has no projection
+         */
+        public static final String[] COLUMNS = {_ID, COLUMN_OPERATION, COLUMN_URI, COLUMN_COUNT,
+                COLUMN_ERRORS, COLUMN_MEAN_MICROS, COLUMN_P50_MICROS, COLUMN_P99_MICROS, COLUMN_MAX_MICROS};
+    }
+
+    /**
+     * Metadata describing one column of a table: its type, whether it may be null
+     * and, for INTEGER columns, the range of valid values
+     */
+    public static final class Column {
+
+        public static final int TYPE_TEXT = 0;
+        public static final int TYPE_INTEGER = 1;
+
+        public final String name;
+
+        public final int type;
+
+        public final boolean nullable;
+
+        /**
+         * Smallest and largest valid value of an INTEGER column
+         */
+        public final long min;
+        public final long max;
+
+        /**
+         * Message of the IllegalArgumentException thrown for a missing or invalid value
+         */
+        public final String message;
+
+        public Column(String name, int type, boolean nullable, long min, long max, String message) {
+            this.name = name;
+            this.type = type;
+            this.nullable = nullable;
+            this.min = min;
+            this.max = max;
+            this.message = message;
+        }
     }
 }
@@ -1,11 +1,24 @@
 package com.example.android.inventoryapp.data;
 
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Database helper for Inventory app.
  * Manages database creation and version management.
@@ -16,14 +29,447 @@ public class ProductDbHelper extends SQLiteOpenHelper   {
 
     private static final String DATABASE_NAME = "inventory.db";
 
-    private static final int DATABASE_VERSION = 1;
+    /**
+     * Version history:
+     * 1 - inventory table
+     * 2 - secondary indexes on name, brand and supplier name
+     * 3 - full-text search table kept in sync by triggers
+     * 4 - list index ordered by (name, _id) for keyset paging
+     * 5 - image bytes moved out of the table into ProductImageStore files
+     * 6 - summary table of inventory totals kept current by triggers
+     * 7 - stock movement ledger, with quantity becoming a periodically compacted snapshot
+     * 8 - backfills: the search table and image files of older installs filled in chunks
+     *     after opening rather than during the upgrade
+     */
+    private static final int DATABASE_VERSION = 9;
+
+    /**
+     * Let SQLite checkpoint the write-ahead log back into the database file once it
+     * holds this many pages, instead of letting it grow during long imports
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /**
+     * Truncate the write-ahead log to at most this many bytes after each checkpoint
+     */
+    private static final long WAL_SIZE_LIMIT_BYTES = 4 * 1024 * 1024;
+
+    private final Context mContext;
+
+    /**
+     * Steps of the schema history from version 3 on, in order
+     */
+    private final List<ProductMigration> mMigrations;
+
+    /**
+     * Whether to open the database in write-ahead logging mode
+     */
+    private final boolean mWriteAheadLogging;
+
+    /**
+     * True once the open database is actually running in write-ahead logging mode
+     */
+    private volatile boolean mWriteAheadLoggingEnabled;
+
+    /**
+     * Index serving the inventory list. It covers the list projection (_id, name, price, quantity),
+     * so the list is read from the index alone, and also serves lookups by name and paging
+     * sorted by (name, _id) without a separate sort step
+     */
+    private static final String SQL_CREATE_LIST_INDEX = "CREATE INDEX IF NOT EXISTS idx_inventory_list ON "
+            + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ");";
+
+    private static final String SQL_CREATE_BRAND_INDEX = "CREATE INDEX IF NOT EXISTS idx_inventory_brand ON "
+            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_PRODUCT_BRAND + ");";
+
+    private static final String SQL_CREATE_SUPPLIER_INDEX = "CREATE INDEX IF NOT EXISTS idx_inventory_supplier_name ON "
+            + ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_SUPPLIER_NAME + ");";
+
+    /**
+     * FTS4 table holding the searchable text of each product, keyed by docid = product _ID
+     */
+    private static final String SQL_CREATE_FTS_TABLE = "CREATE VIRTUAL TABLE " + ProductEntry.FTS_TABLE_NAME
+            + " USING fts4("
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_BRAND + ", "
+            + ProductEntry.COLUMN_SUPPLIER_NAME + ");";
+
+    private static final String SQL_CREATE_FTS_INSERT_TRIGGER = "CREATE TRIGGER inventory_fts_insert"
+            + " AFTER INSERT ON " + ProductEntry.TABLE_NAME + " BEGIN"
+            + " INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_BRAND + ", "
+            + ProductEntry.COLUMN_SUPPLIER_NAME + ") VALUES (new." + ProductEntry._ID
+            + ", new." + ProductEntry.COLUMN_PRODUCT_NAME
+            + ", new." + ProductEntry.COLUMN_PRODUCT_BRAND
+            + ", new." + ProductEntry.COLUMN_SUPPLIER_NAME + ");"
+            + " END;";
+
+    private static final String SQL_CREATE_FTS_UPDATE_TRIGGER = "CREATE TRIGGER inventory_fts_update"
+            + " AFTER UPDATE OF "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_BRAND + ", "
+            + ProductEntry.COLUMN_SUPPLIER_NAME + " ON " + ProductEntry.TABLE_NAME + " BEGIN"
+            + " UPDATE " + ProductEntry.FTS_TABLE_NAME + " SET "
+            + ProductEntry.COLUMN_PRODUCT_NAME + " = new." + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_BRAND + " = new." + ProductEntry.COLUMN_PRODUCT_BRAND + ", "
+            + ProductEntry.COLUMN_SUPPLIER_NAME + " = new." + ProductEntry.COLUMN_SUPPLIER_NAME
+            + " WHERE docid = old." + ProductEntry._ID + ";"
+            + " END;";
+
+    private static final String SQL_CREATE_FTS_DELETE_TRIGGER = "CREATE TRIGGER inventory_fts_delete"
+            + " AFTER DELETE ON " + ProductEntry.TABLE_NAME + " BEGIN"
+            + " DELETE FROM " + ProductEntry.FTS_TABLE_NAME + " WHERE docid = old." + ProductEntry._ID + ";"
+            + " END;";
+
+    private static final String SQL_CREATE_MOVEMENTS_TABLE = "CREATE TABLE " + MovementEntry.TABLE_NAME + " ("
+            + MovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + MovementEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, "
+            + MovementEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+            + MovementEntry.COLUMN_REASON + " TEXT NOT NULL, "
+            + MovementEntry.COLUMN_TIME + " INTEGER NOT NULL);";
+
+    /**
+     * Index serving the movements of one product in order, including the sum of those not yet
+     * compacted, which every read of a product's quantity computes
+     */
+    private static final String SQL_CREATE_MOVEMENTS_PRODUCT_INDEX = "CREATE INDEX IF NOT EXISTS idx_stock_movements_product ON "
+            + MovementEntry.TABLE_NAME + " ("
+            + MovementEntry.COLUMN_PRODUCT_ID + ", "
+            + MovementEntry._ID + ", "
+            + MovementEntry.COLUMN_DELTA + ");";
+
+    private static final String SQL_CREATE_MOVEMENTS_TIME_INDEX = "CREATE INDEX IF NOT EXISTS idx_stock_movements_time ON "
+            + MovementEntry.TABLE_NAME + " (" + MovementEntry.COLUMN_TIME + ");";
+
+    /**
+     * Single row table holding the _ID of the last movement compacted into the inventory table,
+     * and a flag set while compaction runs so that the summary triggers ignore it
+     */
+    private static final String LEDGER_STATE_TABLE_NAME = "stock_ledger_state";
+    private static final String COLUMN_COMPACTED_THROUGH = "compacted_through";
+    private static final String COLUMN_COMPACTING = "compacting";
+
+    private static final String SQL_CREATE_LEDGER_STATE_TABLE = "CREATE TABLE " + LEDGER_STATE_TABLE_NAME + " ("
+            + "_id INTEGER PRIMARY KEY, "
+            + COLUMN_COMPACTED_THROUGH + " INTEGER NOT NULL, "
+            + COLUMN_COMPACTING + " INTEGER NOT NULL);";
+
+    /**
+     * Expression for the _ID of the last compacted movement
+     */
+    private static final String SQL_COMPACTED_THROUGH = "(SELECT " + COLUMN_COMPACTED_THROUGH
+            + " FROM " + LEDGER_STATE_TABLE_NAME + " WHERE _id = 1)";
+
+    private static final String SQL_CREATE_CURRENT_VIEW = buildCurrentViewSql();
+
+    /**
+     * Table of the backfills still to run, each with the _ID of the last product it processed
+     * and of the last product that existed when its migration ran
+     */
+    private static final String BACKFILL_TABLE_NAME = "schema_backfills";
+    private static final String COLUMN_BACKFILL_NAME = "name";
+    private static final String COLUMN_BACKFILL_AFTER = "after_id";
+    private static final String COLUMN_BACKFILL_THROUGH = "through_id";
+
+    private static final String SQL_CREATE_BACKFILL_TABLE = "CREATE TABLE IF NOT EXISTS " + BACKFILL_TABLE_NAME + " ("
+            + COLUMN_BACKFILL_NAME + " TEXT PRIMARY KEY, "
+            + COLUMN_BACKFILL_AFTER + " INTEGER NOT NULL, "
+            + COLUMN_BACKFILL_THROUGH + " INTEGER NOT NULL);";
+
+    /**
+     * Backfill filling the search table with the products that existed before it
+     */
+    static final String BACKFILL_SEARCH_INDEX = "search_index";
+
+    /**
+     * Backfill moving the images stored as bytes before version 5 to the image store
+     */
+    static final String BACKFILL_IMAGE_FILES = "image_files";
+
+    /**
+     * Products per chunk of a backfill. A chunk holds the write lock until it commits, so
+     * chunks are kept short enough not to hold up the writes of the app noticeably
+     */
+    private static final int SEARCH_INDEX_CHUNK_ROWS = 1000;
+    private static final int IMAGE_FILES_CHUNK_ROWS = 20;
+
+    private static final String SQL_CREATE_STATS_TABLE = "CREATE TABLE " + StatsEntry.TABLE_NAME + " ("
+            + StatsEntry._ID + " INTEGER PRIMARY KEY, "
+            + StatsEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL, "
+            + StatsEntry.COLUMN_UNIT_COUNT + " INTEGER NOT NULL, "
+            + StatsEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL, "
+            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL);";
+
+    /**
+     * Statement that replaces the summary row with totals computed from the current quantity
+     * of every product
+     */
+    private static final String SQL_REBUILD_STATS = "INSERT OR REPLACE INTO " + StatsEntry.TABLE_NAME + " ("
+            + StatsEntry._ID + ", "
+            + StatsEntry.COLUMN_PRODUCT_COUNT + ", "
+            + StatsEntry.COLUMN_UNIT_COUNT + ", "
+            + StatsEntry.COLUMN_STOCK_VALUE + ", "
+            + StatsEntry.COLUMN_LOW_STOCK_COUNT + ") SELECT "
+            + StatsEntry.ROW_ID + ", "
+            + "count(*), "
+            + "ifnull(sum(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0), "
+            + "ifnull(sum(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * " + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0), "
+            + "ifnull(sum(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + " < " + StatsEntry.LOW_STOCK_THRESHOLD + "), 0)"
+            + " FROM " + ProductEntry.VIEW_NAME;
+
+    private static final String SQL_CREATE_STATS_INSERT_TRIGGER = "CREATE TRIGGER inventory_stats_insert"
+            + " AFTER INSERT ON " + ProductEntry.TABLE_NAME + " BEGIN"
+            + " " + statsUpdate(null, "new")
+            + " END;";
+
+    /**
+     * Compaction moves quantity from the ledger into the table without changing the current
+     * quantity, so the summary ignores updates made while it runs
+     */
+    private static final String SQL_CREATE_STATS_UPDATE_TRIGGER = "CREATE TRIGGER inventory_stats_update"
+            + " AFTER UPDATE OF "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + " ON " + ProductEntry.TABLE_NAME
+            + " WHEN (SELECT " + COLUMN_COMPACTING + " FROM " + LEDGER_STATE_TABLE_NAME + " WHERE _id = 1) = 0"
+            + " BEGIN"
+            + " " + statsUpdate("old", "new")
+            + " END;";
+
+    /**
+     * Takes a deleted product out of the summary, then drops its movements that are not compacted
+     * yet, so that a product inserted later with the same _ID does not inherit its quantity.
+     * One trigger does both because the summary reads those movements and SQLite does not
+     * define the order in which triggers on the same event run
+     */
+    private static final String SQL_CREATE_DELETE_TRIGGER = "CREATE TRIGGER inventory_delete"
+            + " AFTER DELETE ON " + ProductEntry.TABLE_NAME + " BEGIN"
+            + " " + statsUpdate("old", null)
+            + " DELETE FROM " + MovementEntry.TABLE_NAME
+            + " WHERE " + MovementEntry.COLUMN_PRODUCT_ID + " = old." + ProductEntry._ID
+            + " AND " + MovementEntry._ID + " > " + SQL_COMPACTED_THROUGH + ";"
+            + " END;";
+
+    private static final String SQL_CREATE_STATS_MOVEMENT_TRIGGER = "CREATE TRIGGER stock_movements_stats"
+            + " AFTER INSERT ON " + MovementEntry.TABLE_NAME
+            + " WHEN EXISTS (SELECT 1 FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry._ID + " = new." + MovementEntry.COLUMN_PRODUCT_ID + ")"
+            + " BEGIN"
+            + " UPDATE " + StatsEntry.TABLE_NAME + " SET "
+            + StatsEntry.COLUMN_UNIT_COUNT + " = " + StatsEntry.COLUMN_UNIT_COUNT
+            + " + new." + MovementEntry.COLUMN_DELTA + ", "
+            + StatsEntry.COLUMN_STOCK_VALUE + " = " + StatsEntry.COLUMN_STOCK_VALUE
+            + " + new." + MovementEntry.COLUMN_DELTA + " * (SELECT " + ProductEntry.COLUMN_PRODUCT_PRICE
+            + " FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry._ID + " = new." + MovementEntry.COLUMN_PRODUCT_ID + "), "
+            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+            + " + (SELECT (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + " < " + StatsEntry.LOW_STOCK_THRESHOLD + ")"
+            + " - (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - new." + MovementEntry.COLUMN_DELTA
+            + " < " + StatsEntry.LOW_STOCK_THRESHOLD + ")"
+            + " FROM " + ProductEntry.VIEW_NAME
+            + " WHERE " + ProductEntry._ID + " = new." + MovementEntry.COLUMN_PRODUCT_ID + ")"
+            + " WHERE " + StatsEntry._ID + " = " + StatsEntry.ROW_ID + ";"
+            + " END;";
+
+    /**
+     * Return the expression summing the movements of the product in the given row that are not
+     * compacted yet
+     */
+    private static String pendingDelta(String row) {
+        return "ifnull((SELECT sum(" + MovementEntry.COLUMN_DELTA + ") FROM " + MovementEntry.TABLE_NAME
+                + " WHERE " + MovementEntry.COLUMN_PRODUCT_ID + " = " + row + "." + ProductEntry._ID
+                + " AND " + MovementEntry._ID + " > " + SQL_COMPACTED_THROUGH + "), 0)";
+    }
+
+    /**
+     * Build the view that reads products with their current quantity
+     */
+    private static String buildCurrentViewSql() {
+        StringBuilder columns = new StringBuilder(ProductEntry._ID);
+        for (ProductContract.Column column : ProductEntry.COLUMNS) {
+            columns.append(", ");
+            if (ProductEntry.COLUMN_PRODUCT_QUANTITY.equals(column.name)) {
+                columns.append(column.name).append(" + ").append(pendingDelta(ProductEntry.TABLE_NAME))
+                        .append(" AS ").append(column.name);
+            } else if (ProductEntry.COLUMN_PRODUCT_IMAGE.equals(column.name)) {
+                //An image still stored as bytes reads as no image until its backfill moves it
+                columns.append("CASE WHEN typeof(").append(column.name).append(") = 'blob' THEN ''")
+                        .append(" ELSE ").append(column.name).append(" END AS ").append(column.name);
+            } else {
+                columns.append(column.name);
+            }
+        }
+        return "CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT " + columns
+                + " FROM " + ProductEntry.TABLE_NAME + ";";
+    }
+
+    /**
+     * Return the statement a trigger runs to take the product in the removed trigger row out of
+     * the summary and add the product in the added one. Either row ("old" or "new") may be null
+     */
+    private static String statsUpdate(String removed, String added) {
+        return "UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                + StatsEntry.COLUMN_PRODUCT_COUNT + " = " + StatsEntry.COLUMN_PRODUCT_COUNT
+                + statsTerm(removed, added, "1") + ", "
+                + StatsEntry.COLUMN_UNIT_COUNT + " = " + StatsEntry.COLUMN_UNIT_COUNT
+                + statsTerm(removed, added, "{quantity}") + ", "
+                + StatsEntry.COLUMN_STOCK_VALUE + " = " + StatsEntry.COLUMN_STOCK_VALUE
+                + statsTerm(removed, added, "{price} * {quantity}") + ", "
+                + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+                + statsTerm(removed, added, "({quantity} < " + StatsEntry.LOW_STOCK_THRESHOLD + ")")
+                + " WHERE " + StatsEntry._ID + " = " + StatsEntry.ROW_ID + ";";
+    }
+
+    /**
+     * Return " - removed value + added value" for an expression of the {price} and current
+     * {quantity} of the product in a trigger row
+     */
+    private static String statsTerm(String removed, String added, String expression) {
+        String term = "";
+        if (removed != null) {
+            term += " - " + statsValue(removed, expression);
+        }
+        if (added != null) {
+            term += " + " + statsValue(added, expression);
+        }
+        return term;
+    }
+
+    private static String statsValue(String row, String expression) {
+        return expression
+                .replace("{price}", row + "." + ProductEntry.COLUMN_PRODUCT_PRICE)
+                .replace("{quantity}", "(" + row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                        + " + " + pendingDelta(row) + ")");
+    }
 
     /**
      * Constructs a new instance of ProductDbHelper
      * @param context of the app
      */
     public ProductDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    /**
+     * Constructs a ProductDbHelper for the database with the given name.
+     * Pass null for an in-memory database, as the tests do
+     */
+    ProductDbHelper(Context context, String name) {
+        this(context, name, true);
+    }
+
+    /**
+     * Constructs a ProductDbHelper for the database with the given name, optionally
+     * keeping SQLite's rollback journal instead of write-ahead logging, e.g. to compare the two
+     */
+    ProductDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context;
+        mWriteAheadLogging = writeAheadLogging;
+        mMigrations = buildMigrations();
+    }
+
+    /**
+     * Return the steps that bring a version 2 database up to DATABASE_VERSION, in order.
+     * Add a step here with each new version
+     */
+    private List<ProductMigration> buildMigrations() {
+        List<ProductMigration> migrations = new ArrayList<ProductMigration>();
+
+        migrations.add(new ProductMigration(3) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                createSearchIndex(db);
+            }
+
+            @Override
+            Backfill getBackfill() {
+                return new Backfill(BACKFILL_SEARCH_INDEX, SEARCH_INDEX_CHUNK_ROWS) {
+                    @Override
+                    void fill(SQLiteDatabase db, long afterId, long throughId) {
+                        fillSearchIndex(db, afterId, throughId);
+                    }
+                };
+            }
+        });
+
+        migrations.add(new ProductMigration(4) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                db.execSQL("DROP INDEX IF EXISTS idx_inventory_list");
+                db.execSQL(SQL_CREATE_LIST_INDEX);
+            }
+        });
+
+        migrations.add(new ProductMigration(5) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                //Nothing changes in the schema; the images are moved by the backfill
+            }
+
+            @Override
+            Backfill getBackfill() {
+                return new Backfill(BACKFILL_IMAGE_FILES, IMAGE_FILES_CHUNK_ROWS) {
+                    @Override
+                    void fill(SQLiteDatabase db, long afterId, long throughId) {
+                        moveImagesToFiles(db, afterId, throughId);
+                    }
+                };
+            }
+        });
+
+        migrations.add(new ProductMigration(6) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                //The summary table is built on top of the ledger of version 7, which creates it
+            }
+        });
+
+        migrations.add(new ProductMigration(7) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                //From version 7 the summary counts movements that are not compacted yet, so it is
+                //built on top of the ledger. Installs older than 6 get it here for the first time
+                createLedger(db);
+                db.execSQL("DROP TRIGGER IF EXISTS inventory_stats_insert");
+                db.execSQL("DROP TRIGGER IF EXISTS inventory_stats_update");
+                db.execSQL("DROP TRIGGER IF EXISTS inventory_stats_delete");
+                db.execSQL("DROP TABLE IF EXISTS " + StatsEntry.TABLE_NAME);
+                createStatsTable(db);
+            }
+        });
+
+        migrations.add(new ProductMigration(8) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                //The backfill table itself is created before any step runs. Recreate the view
+                //so that it hides the images the backfill of version 5 has not moved yet
+                db.execSQL("DROP VIEW IF EXISTS " + ProductEntry.VIEW_NAME);
+                db.execSQL(SQL_CREATE_CURRENT_VIEW);
+            }
+        });
+
+        migrations.add(new ProductMigration(9) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                //Deleting a product now also drops its movements that are not compacted yet.
+                //Version 7 created the trigger under its old name, and a fresh version 7 step
+                //under the new one; drop the movements deleted products left behind so far
+                db.execSQL("DROP TRIGGER IF EXISTS inventory_stats_delete");
+                db.execSQL("DROP TRIGGER IF EXISTS inventory_delete");
+                db.execSQL(SQL_CREATE_DELETE_TRIGGER);
+                db.execSQL("DELETE FROM " + MovementEntry.TABLE_NAME
+                        + " WHERE " + MovementEntry._ID + " > " + SQL_COMPACTED_THROUGH
+                        + " AND " + MovementEntry.COLUMN_PRODUCT_ID + " NOT IN (SELECT "
+                        + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME + ")");
+            }
+        });
+
+        return migrations;
     }
 
     /**
@@ -36,9 +482,9 @@ public class ProductDbHelper extends SQLiteOpenHelper   {
         String SQL_CREATE_INVENTORY_TABLE = "CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
                 + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
-                + ProductEntry.COLUMN_SUPPLIER_NAME + "TEXT NOT NULL, "
-                + ProductEntry.COLUMN_SUPPLIER_EMAIL + "TEXT NOT NULL, "
-                + ProductEntry.COLUMN_SUPPLIER_PHONE + "TEXT NOT NULL, "
+                + ProductEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_SUPPLIER_EMAIL + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_SUPPLIER_PHONE + " TEXT NOT NULL, "
                 + ProductEntry.COLUMN_PRODUCT_BRAND + " TEXT NOT NULL, "
                 + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL, "
                 + ProductEntry.COLUMN_PRODUCT_IMAGE + " TEXT NOT NULL, "
@@ -46,14 +492,328 @@ public class ProductDbHelper extends SQLiteOpenHelper   {
 
         //Execute the SQL statement
         db.execSQL(SQL_CREATE_INVENTORY_TABLE);
+
+        createIndexes(db);
+        createSearchIndex(db);
+        createLedger(db);
+        createStatsTable(db);
+        db.execSQL(SQL_CREATE_BACKFILL_TABLE);
     }
 
     /**
-     * Called when the database needs to be upgraded
+     * Create the secondary indexes of the inventory table
+     */
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_LIST_INDEX);
+        db.execSQL(SQL_CREATE_BRAND_INDEX);
+        db.execSQL(SQL_CREATE_SUPPLIER_INDEX);
+    }
+
+    /**
+     * Create the full-text search table and the triggers that keep it in sync with the
+     * inventory table. Products that already exist are added by {@link #fillSearchIndex}
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_FTS_TABLE);
+        db.execSQL(SQL_CREATE_FTS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_DELETE_TRIGGER);
+    }
+
+    /**
+     * Add the products with an _ID in (afterId, throughId] to the search table, skipping any
+     * the triggers already added
+     */
+    private static void fillSearchIndex(SQLiteDatabase db, long afterId, long throughId) {
+        db.execSQL("INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_BRAND + ", "
+                + ProductEntry.COLUMN_SUPPLIER_NAME + ") SELECT "
+                + ProductEntry._ID + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_BRAND + ", "
+                + ProductEntry.COLUMN_SUPPLIER_NAME + " FROM " + ProductEntry.TABLE_NAME
+                + " WHERE " + ProductEntry._ID + " > " + afterId
+                + " AND " + ProductEntry._ID + " <= " + throughId
+                + " AND " + ProductEntry._ID + " NOT IN (SELECT docid FROM " + ProductEntry.FTS_TABLE_NAME
+                + " WHERE docid > " + afterId + " AND docid <= " + throughId + ")");
+    }
+
+    /**
+     * Create the stock movement ledger, its state and the view that adds the movements not yet
+     * compacted to the quantity of each product
+     */
+    private static void createLedger(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_MOVEMENTS_TABLE);
+        db.execSQL(SQL_CREATE_MOVEMENTS_PRODUCT_INDEX);
+        db.execSQL(SQL_CREATE_MOVEMENTS_TIME_INDEX);
+        db.execSQL(SQL_CREATE_LEDGER_STATE_TABLE);
+        db.execSQL("INSERT INTO " + LEDGER_STATE_TABLE_NAME + " (_id, " + COLUMN_COMPACTED_THROUGH + ", "
+                + COLUMN_COMPACTING + ") VALUES (1, 0, 0)");
+        db.execSQL(SQL_CREATE_CURRENT_VIEW);
+    }
+
+    /**
+     * Create the summary table and the triggers that keep it current, and compute its row
+     * from the products that already exist
+     */
+    private static void createStatsTable(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_STATS_TABLE);
+        db.execSQL(SQL_CREATE_STATS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_STATS_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_STATS_MOVEMENT_TRIGGER);
+        rebuildStats(db);
+    }
+
+    /**
+     * Recompute the summary row from scratch. The triggers keep it current, so this is only
+     * needed to create it, or to check in tests that the triggers agree with a full recount
+     */
+    static void rebuildStats(SQLiteDatabase db) {
+        db.execSQL(SQL_REBUILD_STATS);
+    }
+
+    /**
+     * Return the number of movements appended since the last compaction. Movement IDs only
+     * grow, so this counts across process restarts without keeping a counter
+     */
+    static long uncompactedMovements(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT ifnull(max(" + MovementEntry._ID + "), 0) - "
+                + SQL_COMPACTED_THROUGH + " FROM " + MovementEntry.TABLE_NAME, null);
+    }
+
+    /**
+     * Fold every movement appended since the last compaction into the quantity column of the
+     * inventory table, in one transaction. The current quantity of each product does not change,
+     * so neither do the view or the summary
+     */
+    static void compactMovements(SQLiteDatabase db) {
+        db.beginTransactionNonExclusive();
+        try {
+            long compactedThrough = DatabaseUtils.longForQuery(db, "SELECT " + SQL_COMPACTED_THROUGH, null);
+            long lastMovement = DatabaseUtils.longForQuery(db, "SELECT ifnull(max(" + MovementEntry._ID + "), 0)"
+                    + " FROM " + MovementEntry.TABLE_NAME, null);
+            if (lastMovement > compactedThrough) {
+                String range = MovementEntry._ID + " > " + compactedThrough
+                        + " AND " + MovementEntry._ID + " <= " + lastMovement;
+                db.execSQL("UPDATE " + LEDGER_STATE_TABLE_NAME + " SET " + COLUMN_COMPACTING + " = 1 WHERE _id = 1");
+                db.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                        + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                        + " + (SELECT sum(" + MovementEntry.COLUMN_DELTA + ") FROM " + MovementEntry.TABLE_NAME
+                        + " WHERE " + MovementEntry.COLUMN_PRODUCT_ID + " = " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID
+                        + " AND " + range + ")"
+                        + " WHERE " + ProductEntry._ID + " IN (SELECT " + MovementEntry.COLUMN_PRODUCT_ID
+                        + " FROM " + MovementEntry.TABLE_NAME + " WHERE " + range + ")");
+                db.execSQL("UPDATE " + LEDGER_STATE_TABLE_NAME + " SET " + COLUMN_COMPACTED_THROUGH + " = "
+                        + lastMovement + ", " + COLUMN_COMPACTING + " = 0 WHERE _id = 1");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Called when the database needs to be upgraded.
+     * Runs the step of each version after oldVersion in order, so any older install can be
+     * upgraded. This happens in one transaction that blocks every other use of the database,
+     * so the steps only change the schema and register their backfills; the products are
+     * processed by {@link #runBackfills} once the database is open
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + ProductEntry.TABLE_NAME);
-        onCreate(db);
+        if (oldVersion < 2) {
+            //Version 1 declared the supplier columns without a space before their type
+            //(e.g. "supplier_nameTEXT"), so no product could ever be inserted into it.
+            //The table is necessarily empty and is simply recreated with the fixed columns
+            db.execSQL("DROP TABLE IF EXISTS " + ProductEntry.TABLE_NAME);
+            onCreate(db);
+            return;
+        }
+
+        db.execSQL(SQL_CREATE_BACKFILL_TABLE);
+        for (ProductMigration migration : mMigrations) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            migration.migrate(db);
+            ProductMigration.Backfill backfill = migration.getBackfill();
+            if (backfill != null) {
+                startBackfill(db, backfill.name);
+            }
+        }
+    }
+
+    /**
+     * Register the backfill with the given name over every product that exists now
+     */
+    static void startBackfill(SQLiteDatabase db, String name) {
+        db.execSQL("INSERT OR REPLACE INTO " + BACKFILL_TABLE_NAME + " ("
+                + COLUMN_BACKFILL_NAME + ", "
+                + COLUMN_BACKFILL_AFTER + ", "
+                + COLUMN_BACKFILL_THROUGH + ") SELECT ?, 0, ifnull(max(" + ProductEntry._ID + "), 0)"
+                + " FROM " + ProductEntry.TABLE_NAME, new Object[]{name});
+    }
+
+    /**
+     * Run the backfills left by upgrades to completion, one chunk of products per transaction,
+     * so that the app keeps reading and writing in between. Progress is committed with each
+     * chunk; a backfill cut short by the process dying resumes on the next call
+     */
+    public synchronized void runBackfills() {
+        SQLiteDatabase db = getWritableDatabase();
+        for (ProductMigration migration : mMigrations) {
+            ProductMigration.Backfill backfill = migration.getBackfill();
+            if (backfill == null) {
+                continue;
+            }
+            long start = System.nanoTime();
+            int chunks = 0;
+            while (runBackfillChunk(db, backfill)) {
+                chunks++;
+            }
+            if (chunks > 0) {
+                Log.i(LOG_TAG, "Backfill " + backfill.name + " ran " + chunks + " chunks in "
+                        + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        }
+    }
+
+    /**
+     * Run the next chunk of the backfill in its own transaction and record its progress.
+     * Return false if the backfill had nothing left to do
+     */
+    private static boolean runBackfillChunk(SQLiteDatabase db, ProductMigration.Backfill backfill) {
+        String[] nameArgs = new String[]{backfill.name};
+        db.beginTransactionNonExclusive();
+        try {
+            long afterId;
+            long throughId;
+            Cursor progress = db.rawQuery("SELECT " + COLUMN_BACKFILL_AFTER + ", " + COLUMN_BACKFILL_THROUGH
+                    + " FROM " + BACKFILL_TABLE_NAME + " WHERE " + COLUMN_BACKFILL_NAME + " = ?", nameArgs);
+            try {
+                if (!progress.moveToFirst()) {
+                    return false;
+                }
+                afterId = progress.getLong(0);
+                throughId = progress.getLong(1);
+            } finally {
+                progress.close();
+            }
+
+            //The chunk ends at the chunkRows-th product after afterId, or at throughId
+            long chunkEndId = DatabaseUtils.longForQuery(db, "SELECT ifnull((SELECT " + ProductEntry._ID
+                    + " FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry._ID + " > " + afterId
+                    + " AND " + ProductEntry._ID + " <= " + throughId
+                    + " ORDER BY " + ProductEntry._ID
+                    + " LIMIT 1 OFFSET " + (backfill.chunkRows - 1) + "), " + throughId + ")", null);
+            backfill.fill(db, afterId, chunkEndId);
+
+            if (chunkEndId >= throughId) {
+                db.delete(BACKFILL_TABLE_NAME, COLUMN_BACKFILL_NAME + " = ?", nameArgs);
+            } else {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_BACKFILL_AFTER, chunkEndId);
+                db.update(BACKFILL_TABLE_NAME, values, COLUMN_BACKFILL_NAME + " = ?", nameArgs);
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Write every image with an _ID in (afterId, throughId] still stored as bytes in the
+     * inventory table to the image store and replace it with a reference to the file.
+     * Images are read one row at a time so that a large image never has to share a
+     * CursorWindow with others
+     */
+    private void moveImagesToFiles(SQLiteDatabase db, long afterId, long throughId) {
+        ProductImageStore imageStore = new ProductImageStore(mContext);
+
+        Cursor ids = db.rawQuery("SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME
+                + " WHERE " + ProductEntry._ID + " > " + afterId
+                + " AND " + ProductEntry._ID + " <= " + throughId
+                + " AND typeof(" + ProductEntry.COLUMN_PRODUCT_IMAGE + ") = 'blob'", null);
+        try {
+            while (ids.moveToNext()) {
+                long id = ids.getLong(0);
+                String[] idArgs = new String[]{String.valueOf(id)};
+
+                byte[] image;
+                Cursor row = db.rawQuery("SELECT " + ProductEntry.COLUMN_PRODUCT_IMAGE + " FROM "
+                        + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?", idArgs);
+                try {
+                    row.moveToFirst();
+                    image = row.getBlob(0);
+                } finally {
+                    row.close();
+                }
+
+                try {
+                    FileOutputStream out = new FileOutputStream(imageStore.getFileForWrite(id));
+                    try {
+                        out.write(image);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    throw new SQLiteException("Cannot move the image of product " + id + " to a file: " + e);
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, ProductImageStore.getReference(id));
+                db.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + " = ?", idArgs);
+            }
+        } finally {
+            ids.close();
+        }
+    }
+
+    /**
+     * Called when the database has been opened.
+     * Switch to write-ahead logging so that readers on other connections never wait for a
+     * writer: a long import through ProductProvider no longer stalls the CursorLoaders reading
+     * the list. The platform then serves readers from its pool of read-only connections.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!mWriteAheadLogging || db.isReadOnly() || !db.enableWriteAheadLogging()) {
+            return;
+        }
+        mWriteAheadLoggingEnabled = true;
+
+        //In WAL mode, NORMAL only syncs at checkpoints; a commit can be lost on power failure
+        //but the database cannot be corrupted, which is the right trade for inventory counts
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        pragma(db, "wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        pragma(db, "journal_size_limit = " + WAL_SIZE_LIMIT_BYTES);
+    }
+
+    /**
+     * Copy the write-ahead log back into the database file without waiting for readers.
+     * Called after large writes so that the log does not stay large and slow down reads
+     */
+    public void checkpoint() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (mWriteAheadLoggingEnabled) {
+            pragma(db, "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    /**
+     * Run a PRAGMA that returns a row, which execSQL refuses to do
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 }
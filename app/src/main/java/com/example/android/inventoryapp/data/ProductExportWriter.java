@@ -0,0 +1,333 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.Column;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the whole inventory into the pipe handed out by ProductProvider for the export URI,
+ * as CSV or as one JSON object per line, on a background thread. From KitKat on the pipe is
+ * reliable and an export that fails is closed with an error, so a reader that calls
+ * ParcelFileDescriptor.checkError at the end can tell it from a complete one.
+ * <p>
+ * Products are read in pages of PAGE_ROWS ordered by _ID, each page seeking past the last _ID
+ * of the one before, so no cursor ever holds more than a page and writers are not blocked
+ * for the length of the export. Text is copied out of the cursor into a reused buffer and
+ * numbers are formatted into a reused array, so a row is written without allocating.
+ * Those buffers make an instance single use; create one per export.
+ */
+
+final class ProductExportWriter {
+
+    private static final String LOG_TAG = ProductExportWriter.class.getSimpleName();
+
+    /**
+     * Products read per query
+     */
+    private static final int PAGE_ROWS = 1000;
+
+    /**
+     * Characters buffered before they are written to the pipe
+     */
+    private static final int WRITE_BUFFER_CHARS = 64 * 1024;
+
+    /**
+     * Columns of the export: the _ID, then every product column in contract order
+     */
+    private static final String[] COLUMNS = ProductCache.COLUMNS;
+
+    private static final String PAGE_SELECTION = ProductEntry._ID + " > ?";
+
+    private final ProductDbHelper mDbHelper;
+
+    private final CharArrayBuffer mText = new CharArrayBuffer(128);
+
+    private final char[] mDigits = new char[20];
+
+    /**
+     * True for each column of COLUMNS that holds integers
+     */
+    private final boolean[] mInteger = new boolean[COLUMNS.length];
+
+    ProductExportWriter(ProductDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+        mInteger[0] = true;
+        for (int i = 0; i < ProductEntry.COLUMNS.length; i++) {
+            mInteger[i + 1] = ProductEntry.COLUMNS[i].type == Column.TYPE_INTEGER;
+        }
+    }
+
+    /**
+     * Return the format named by the export URI, defaulting to CSV, or null if it names a
+     * format that cannot be exported
+     */
+    static String findFormat(Uri uri) {
+        String format = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_FORMAT);
+        if (format == null || ProductEntry.EXPORT_FORMAT_CSV.equals(format)) {
+            return ProductEntry.EXPORT_FORMAT_CSV;
+        }
+        if (ProductEntry.EXPORT_FORMAT_JSON.equals(format)) {
+            return ProductEntry.EXPORT_FORMAT_JSON;
+        }
+        return null;
+    }
+
+    /**
+     * Return the format named by the export URI, defaulting to CSV.
+     * Throws an IllegalArgumentException if it names a format that cannot be exported
+     */
+    static String formatOf(Uri uri) {
+        String format = findFormat(uri);
+        if (format == null) {
+            throw new IllegalArgumentException("Unknown export format "
+                    + uri.getQueryParameter(ProductContract.QUERY_PARAMETER_FORMAT));
+        }
+        return format;
+    }
+
+    /**
+     * Return the MIME type of an export in the given format, or null for no format
+     */
+    static String mimeTypeOf(String format) {
+        if (format == null) {
+            return null;
+        }
+        return ProductEntry.EXPORT_FORMAT_JSON.equals(format)
+                ? ProductEntry.CONTENT_EXPORT_JSON_TYPE : ProductEntry.CONTENT_EXPORT_CSV_TYPE;
+    }
+
+    /**
+     * Start writing an export in the given format on a background thread, as
+     * ContentProvider.openPipeHelper does, and return the read end of its pipe
+     */
+    static ParcelFileDescriptor open(ProductDbHelper dbHelper, final Uri uri, final String format)
+            throws FileNotFoundException {
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    ? ParcelFileDescriptor.createReliablePipe() : ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Failure making pipe for " + uri);
+        }
+        final ProductExportWriter writer = new ProductExportWriter(dbHelper);
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                writer.write(pipe[1], uri, format);
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return pipe[0];
+    }
+
+    /**
+     * Write the whole inventory in the given format into output and close it, with an error
+     * if the export did not complete
+     */
+    void write(ParcelFileDescriptor output, Uri uri, String format) {
+        String error = null;
+        try {
+            //The pipe is closed below, so the stream is only flushed
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output.getFileDescriptor()), "UTF-8"), WRITE_BUFFER_CHARS);
+            boolean json = ProductEntry.EXPORT_FORMAT_JSON.equals(format);
+            if (!json) {
+                writeCsvHeader(writer);
+            }
+
+            SQLiteDatabase database = mDbHelper.getReadableDatabase();
+            String[] pageArgs = {"0"};
+            while (true) {
+                Cursor page = database.query(ProductEntry.VIEW_NAME, COLUMNS, PAGE_SELECTION, pageArgs,
+                        null, null, ProductEntry._ID, String.valueOf(PAGE_ROWS));
+                try {
+                    if (!page.moveToFirst()) {
+                        break;
+                    }
+                    do {
+                        if (json) {
+                            writeJsonRow(writer, page);
+                        } else {
+                            writeCsvRow(writer, page);
+                        }
+                    } while (page.moveToNext());
+
+                    page.moveToPosition(page.getCount() - 1);
+                    pageArgs[0] = String.valueOf(page.getLong(0));
+                    if (page.getCount() < PAGE_ROWS) {
+                        break;
+                    }
+                } finally {
+                    page.close();
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            //Usually the reader closed its end of the pipe before the export finished
+            Log.w(LOG_TAG, "Export to " + uri + " stopped", e);
+            error = "Export stopped: " + e.getMessage();
+        } catch (RuntimeException e) {
+            //A failed query must neither crash the process from this thread nor end the
+            //stream as if the export were complete
+            Log.e(LOG_TAG, "Export to " + uri + " failed", e);
+            error = "Export failed: " + e;
+        }
+        close(output, error);
+    }
+
+    private static void close(ParcelFileDescriptor output, String error) {
+        try {
+            if (error != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                output.closeWithError(error);
+            } else {
+                output.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot close the export pipe", e);
+        }
+    }
+
+    private static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i != 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write('\n');
+    }
+
+    private void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i != 0) {
+                writer.write(',');
+            }
+            if (cursor.isNull(i)) {
+                continue;
+            }
+            if (mInteger[i]) {
+                writeLong(writer, cursor.getLong(i));
+                continue;
+            }
+
+            //Quote only the fields that need it, doubling any quotes inside
+            cursor.copyStringToBuffer(i, mText);
+            char[] text = mText.data;
+            int length = mText.sizeCopied;
+            boolean quote = false;
+            for (int j = 0; j < length && !quote; j++) {
+                char c = text[j];
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                writer.write(text, 0, length);
+                continue;
+            }
+            writer.write('"');
+            int start = 0;
+            for (int j = 0; j < length; j++) {
+                if (text[j] == '"') {
+                    writer.write(text, start, j + 1 - start);
+                    writer.write('"');
+                    start = j + 1;
+                }
+            }
+            writer.write(text, start, length - start);
+            writer.write('"');
+        }
+        writer.write('\n');
+    }
+
+    private void writeJsonRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i != 0) {
+                writer.write(',');
+            }
+            writer.write('"');
+            writer.write(COLUMNS[i]);
+            writer.write("\":");
+            if (cursor.isNull(i)) {
+                writer.write("null");
+            } else if (mInteger[i]) {
+                writeLong(writer, cursor.getLong(i));
+            } else {
+                cursor.copyStringToBuffer(i, mText);
+                writeJsonString(writer, mText.data, mText.sizeCopied);
+            }
+        }
+        writer.write("}\n");
+    }
+
+    private static void writeJsonString(Writer writer, char[] text, int length) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int j = 0; j < length; j++) {
+            char c = text[j];
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            writer.write(text, start, j - start);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write("\\u00");
+                    writer.write(Character.forDigit(c >> 4, 16));
+                    writer.write(Character.forDigit(c & 0xf, 16));
+                    break;
+            }
+            start = j + 1;
+        }
+        writer.write(text, start, length - start);
+        writer.write('"');
+    }
+
+    /**
+     * Write the decimal digits of a number without allocating a String
+     */
+    private void writeLong(Writer writer, long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writer.write(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            writer.write('-');
+            value = -value;
+        }
+        int position = mDigits.length;
+        do {
+            mDigits[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        writer.write(mDigits, position, mDigits.length - position);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+
+import java.io.File;
+
+/**
+ * Stores product images as files in the app's private storage, one file per product ID.
+ * The inventory table only keeps a reference to the file in
+ * {@link ProductContract.ProductEntry#COLUMN_PRODUCT_IMAGE}, so images never travel
+ * through CursorWindows; ProductProvider streams them through the image URI instead.
+ */
+
+public class ProductImageStore {
+
+    /**
+     * Directory under the app's files directory holding the images
+     */
+    private static final String IMAGE_DIRECTORY = "product_images";
+
+    /**
+     * Separates the product ID from the image version in a reference
+     */
+    private static final char VERSION_SEPARATOR = '@';
+
+    private final Context mContext;
+
+    /**
+     * Image directory, resolved on first use since getFilesDir() touches the disk and the store
+     * is created on the main thread at process start
+     */
+    private File mDirectory;
+
+    public ProductImageStore(Context context) {
+        mContext = context;
+    }
+
+    private synchronized File getDirectory() {
+        if (mDirectory == null) {
+            mDirectory = new File(mContext.getFilesDir(), IMAGE_DIRECTORY);
+        }
+        return mDirectory;
+    }
+
+    /**
+     * Return the reference stored in the inventory table for the image of the given product
+     */
+    public static String getReference(long id) {
+        return IMAGE_DIRECTORY + "/" + id;
+    }
+
+    /**
+     * Return the reference for a given version of the image of a product. Each write of the
+     * image stores a new version, so caches can key decoded images on the reference alone
+     */
+    public static String getReference(long id, long version) {
+        return getReference(id) + VERSION_SEPARATOR + version;
+    }
+
+    /**
+     * Return the image version a reference points at, 0 for a reference without a version,
+     * or -1 if it does not point into the store
+     */
+    public static long getVersion(String reference) {
+        if (reference == null || !reference.startsWith(IMAGE_DIRECTORY + "/")) {
+            return -1;
+        }
+        int separator = reference.indexOf(VERSION_SEPARATOR);
+        if (separator == -1) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(reference.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return the file holding the image of the given product. It may not exist yet
+     */
+    public File getFile(long id) {
+        return new File(getDirectory(), String.valueOf(id));
+    }
+
+    /**
+     * Return the file for the image of the given product, creating the image directory if needed
+     */
+    public File getFileForWrite(long id) {
+        File directory = getDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create image directory " + directory);
+        }
+        return getFile(id);
+    }
+
+    /**
+     * Delete the image of the given product, if it has one
+     */
+    public void delete(long id) {
+        getFile(id).delete();
+    }
+
+    /**
+     * Delete the images of every product
+     */
+    public void deleteAll() {
+        File[] files = getDirectory().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+}
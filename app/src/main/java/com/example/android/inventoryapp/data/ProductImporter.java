@@ -0,0 +1,431 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.inventoryapp.data.ProductContract.Column;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imports a product catalog from a CSV or JSON file through ProductProvider.
+ * The file is parsed one row at a time, so memory use does not grow with its size. Rows are
+ * validated with the same rules as ProductProvider.insert and committed in batches, each batch
+ * in its own bulkInsert transaction, so other connections can write between batches.
+ * <p>
+ * A CSV file starts with a header row naming the product columns. A JSON file holds an array of
+ * objects keyed by product column name. Columns that are not product columns are ignored, and
+ * images are never imported; they are added afterwards through the image URI.
+ * Call from a background thread.
+ */
+
+public class ProductImporter {
+
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON = 1;
+
+    /**
+     * Rows committed per transaction unless another batch size is given
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Most rejected rows described in a result, so that a bad file cannot use up the heap
+     */
+    private static final int MAX_REJECTIONS_KEPT = 20;
+
+    /**
+     * Product columns by name
+     */
+    private static final Map<String, Column> COLUMNS_BY_NAME = new HashMap<String, Column>();
+
+    static {
+        for (Column column : ProductEntry.COLUMNS) {
+            COLUMNS_BY_NAME.put(column.name, column);
+        }
+    }
+
+    /**
+     * Receives the progress of an import after every committed batch
+     */
+    public interface ProgressListener {
+        void onProgress(int rowsRead, int rowsImported, int rowsRejected);
+    }
+
+    /**
+     * Counts of an import, and the reasons for the first rejected rows
+     */
+    public static class Result {
+        public int rowsRead;
+        public int rowsImported;
+        public int rowsRejected;
+
+        /**
+         * Row number and reason of each of the first rejected rows. Rows are numbered from 1
+         */
+        public final List<String> rejections = new ArrayList<String>();
+
+        void reject(int row, String reason) {
+            rowsRejected++;
+            if (rejections.size() < MAX_REJECTIONS_KEPT) {
+                rejections.add("Row " + row + ": " + reason);
+            }
+        }
+    }
+
+    private final ContentResolver mResolver;
+
+    private final int mBatchSize;
+
+    public ProductImporter(ContentResolver resolver) {
+        this(resolver, DEFAULT_BATCH_SIZE);
+    }
+
+    public ProductImporter(ContentResolver resolver, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        mResolver = resolver;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Return the format of a file from its MIME type or name, or -1 if it is neither CSV nor JSON
+     */
+    public static int formatOf(String mimeTypeOrName) {
+        if (mimeTypeOrName == null) {
+            return -1;
+        }
+        String lower = mimeTypeOrName.toLowerCase();
+        if (lower.endsWith("csv") || lower.equals("text/comma-separated-values")) {
+            return FORMAT_CSV;
+        }
+        if (lower.endsWith("json")) {
+            return FORMAT_JSON;
+        }
+        return -1;
+    }
+
+    /**
+     * Import the file or content URI in the given format. The listener may be null
+     */
+    public Result importFrom(Uri uri, int format, ProgressListener listener) throws IOException {
+        InputStream in = mResolver.openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        try {
+            return importFrom(in, format, listener);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Import the stream in the given format. The listener may be null. The stream is not closed
+     */
+    public Result importFrom(InputStream in, int format, ProgressListener listener) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        RowReader rows;
+        switch (format) {
+            case FORMAT_CSV:
+                rows = new CsvRowReader(reader);
+                break;
+            case FORMAT_JSON:
+                rows = new JsonRowReader(reader);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown import format " + format);
+        }
+
+        Result result = new Result();
+        ContentValues[] batch = new ContentValues[mBatchSize];
+        int batchCount = 0;
+        while (true) {
+            ContentValues row;
+            try {
+                row = rows.next();
+            } catch (IllegalArgumentException e) {
+                result.rowsRead++;
+                result.reject(result.rowsRead, e.getMessage());
+                continue;
+            }
+            if (row == null) {
+                break;
+            }
+            result.rowsRead++;
+
+            //A new product has no image yet
+            row.put(ProductEntry.COLUMN_PRODUCT_IMAGE, "");
+            try {
+                ProductValidator.validateInsert(row);
+            } catch (IllegalArgumentException e) {
+                result.reject(result.rowsRead, e.getMessage());
+                continue;
+            }
+
+            batch[batchCount++] = row;
+            if (batchCount == batch.length) {
+                commit(batch, result, listener);
+                batchCount = 0;
+            }
+        }
+
+        if (batchCount > 0) {
+            ContentValues[] last = new ContentValues[batchCount];
+            System.arraycopy(batch, 0, last, 0, batchCount);
+            commit(last, result, listener);
+        } else if (listener != null) {
+            listener.onProgress(result.rowsRead, result.rowsImported, result.rowsRejected);
+        }
+        return result;
+    }
+
+    /**
+     * Insert one batch in a single transaction and report the progress
+     */
+    private void commit(ContentValues[] batch, Result result, ProgressListener listener) {
+        result.rowsImported += mResolver.bulkInsert(ProductEntry.CONTENT_URI, batch);
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = null;
+        }
+        if (listener != null) {
+            listener.onProgress(result.rowsRead, result.rowsImported, result.rowsRejected);
+        }
+    }
+
+    /**
+     * Put a value read from a file into the values, as a number if its column holds integers.
+     * Values that are not numbers are kept as text for the validator to reject
+     */
+    private static void putValue(ContentValues values, Column column, String value) {
+        if (column.type == Column.TYPE_INTEGER && value != null) {
+            try {
+                values.put(column.name, Long.parseLong(value.trim()));
+                return;
+            } catch (NumberFormatException e) {
+                //Fall through, the validator reports it with the column's message
+            }
+        }
+        values.put(column.name, value);
+    }
+
+    /**
+     * Reads the rows of a file one at a time
+     */
+    private interface RowReader {
+
+        /**
+         * Return the product columns of the next row, or null at the end of the file.
+         * Throws an IllegalArgumentException for a row that cannot be read; the following
+         * rows can still be read
+         */
+        ContentValues next() throws IOException;
+    }
+
+    /**
+     * Reads RFC 4180 CSV: comma separated fields, optionally enclosed in double quotes, with
+     * doubled quotes inside quoted fields and line breaks allowed in them
+     */
+    private static class CsvRowReader implements RowReader {
+
+        /**
+         * Most characters kept of one record. Far more than any product needs, but small enough
+         * that a stray quote cannot make one record of the rest of the file
+         */
+        static final int MAX_RECORD_CHARS = 64 * 1024;
+
+        private final Reader mReader;
+
+        /**
+         * Product column of each field, or null for fields that are ignored
+         */
+        private Column[] mHeader;
+
+        private final StringBuilder mField = new StringBuilder();
+
+        private final List<String> mFields = new ArrayList<String>();
+
+        CsvRowReader(Reader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            if (mHeader == null) {
+                if (!readRecord()) {
+                    return null;
+                }
+                mHeader = new Column[mFields.size()];
+                for (int i = 0; i < mHeader.length; i++) {
+                    //Drop the byte order mark some spreadsheets write before the first header
+                    String name = mFields.get(i).replace("\uFEFF", "").trim();
+                    Column column = COLUMNS_BY_NAME.get(name);
+                    if (column != null && !ProductEntry.COLUMN_PRODUCT_IMAGE.equals(name)) {
+                        mHeader[i] = column;
+                    }
+                }
+            }
+
+            //Skip blank lines
+            do {
+                if (!readRecord()) {
+                    return null;
+                }
+            } while (mFields.size() == 1 && mFields.get(0).isEmpty());
+
+            ContentValues values = new ContentValues(ProductEntry.COLUMNS.length);
+            int count = Math.min(mFields.size(), mHeader.length);
+            for (int i = 0; i < count; i++) {
+                if (mHeader[i] != null) {
+                    putValue(values, mHeader[i], mFields.get(i));
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Read the fields of the next record into mFields. Return false at the end of the file.
+         * A record longer than MAX_RECORD_CHARS is skipped and reported as a bad row
+         */
+        private boolean readRecord() throws IOException {
+            mFields.clear();
+            mField.setLength(0);
+            boolean quoted = false;
+            boolean any = false;
+            int length = 0;
+            int c;
+            while ((c = mReader.read()) != -1) {
+                any = true;
+                if (++length > MAX_RECORD_CHARS) {
+                    skipLine();
+                    mFields.clear();
+                    mField.setLength(0);
+                    throw new IllegalArgumentException("Row longer than " + MAX_RECORD_CHARS
+                            + " characters, check for an unterminated quote");
+                }
+                if (quoted) {
+                    if (c != '"') {
+                        mField.append((char) c);
+                        continue;
+                    }
+                    mReader.mark(1);
+                    int following = mReader.read();
+                    if (following == '"') {
+                        mField.append('"');
+                    } else {
+                        quoted = false;
+                        if (following != -1) {
+                            mReader.reset();
+                        }
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    mField.append((char) c);
+                }
+            }
+            if (!any) {
+                return false;
+            }
+            if (quoted) {
+                throw new IllegalArgumentException("Unterminated quoted field");
+            }
+            mFields.add(mField.toString());
+            return true;
+        }
+
+        /**
+         * Skip to the start of the next line. Quotes are not followed: a record this long most
+         * likely comes from a stray quote, and following it would swallow the lines after it
+         */
+        private void skipLine() throws IOException {
+            int c;
+            do {
+                c = mReader.read();
+            } while (c != '\n' && c != -1);
+        }
+    }
+
+    /**
+     * Reads a JSON array of product objects with android.util.JsonReader
+     */
+    private static class JsonRowReader implements RowReader {
+
+        private final JsonReader mReader;
+
+        private boolean mStarted;
+
+        JsonRowReader(Reader reader) {
+            mReader = new JsonReader(reader);
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            if (!mStarted) {
+                mReader.beginArray();
+                mStarted = true;
+            }
+            if (!mReader.hasNext()) {
+                mReader.endArray();
+                return null;
+            }
+            if (mReader.peek() != JsonToken.BEGIN_OBJECT) {
+                mReader.skipValue();
+                throw new IllegalArgumentException("Product rows must be JSON objects");
+            }
+
+            ContentValues values = new ContentValues(ProductEntry.COLUMNS.length);
+            String error = null;
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                Column column = COLUMNS_BY_NAME.get(mReader.nextName());
+                if (column == null || ProductEntry.COLUMN_PRODUCT_IMAGE.equals(column.name)) {
+                    mReader.skipValue();
+                    continue;
+                }
+                switch (mReader.peek()) {
+                    case STRING:
+                    case NUMBER:
+                        putValue(values, column, mReader.nextString());
+                        break;
+                    case NULL:
+                        mReader.nextNull();
+                        values.putNull(column.name);
+                        break;
+                    default:
+                        //Finish the object before reporting, so the next row can still be read
+                        mReader.skipValue();
+                        if (error == null) {
+                            error = column.message;
+                        }
+                        break;
+                }
+            }
+            mReader.endObject();
+
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+            return values;
+        }
+    }
+}
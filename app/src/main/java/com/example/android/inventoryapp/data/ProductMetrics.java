@@ -0,0 +1,212 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.inventoryapp.data.ProductContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and error counts of ProductProvider's entry points, one per operation and
+ * URI match. Recording a call costs a few atomic increments in preallocated arrays and never
+ * allocates, so every call can be measured in production.
+ * <p>
+ * Latencies are kept in microseconds, in log-linear buckets: each power of two is split into
+ * SUB_BUCKETS equal buckets, so a percentile read back is within an eighth of the true value.
+ */
+
+final class ProductMetrics {
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    static final int OP_CALL = 5;
+
+    private static final String[] OPERATIONS = {"query", "insert", "bulkInsert", "update", "delete", "call"};
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Latencies of 2^MAX_EXPONENT microseconds (about 67 seconds) or more share the last bucket
+     */
+    private static final int MAX_EXPONENT = 26;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * Offsets of the counters that follow the buckets of each histogram
+     */
+    private static final int ERRORS = BUCKETS;
+    private static final int TOTAL_MICROS = BUCKETS + 1;
+    private static final int MAX_MICROS = BUCKETS + 2;
+    private static final int STRIDE = BUCKETS + 3;
+
+    /**
+     * Name of each URI match, indexed by the match code less the first match code
+     */
+    private final String[] mUris;
+
+    /**
+     * The histograms of every operation and URI match, back to back
+     */
+    private final AtomicLongArray mCounts;
+
+    ProductMetrics(String[] uris) {
+        mUris = uris;
+        mCounts = new AtomicLongArray(OPERATIONS.length * uris.length * STRIDE);
+    }
+
+    /**
+     * Return the start time to pass to record()
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a call of an operation on the URI with the given index, started at startNanos.
+     * Calls on URIs that did not match are not recorded
+     */
+    void record(int operation, int uri, long startNanos, boolean failed) {
+        if (uri < 0 || uri >= mUris.length) {
+            return;
+        }
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int base = (operation * mUris.length + uri) * STRIDE;
+
+        mCounts.incrementAndGet(base + bucketOf(micros));
+        if (failed) {
+            mCounts.incrementAndGet(base + ERRORS);
+        }
+        mCounts.addAndGet(base + TOTAL_MICROS, micros);
+        long max = mCounts.get(base + MAX_MICROS);
+        while (micros > max && !mCounts.compareAndSet(base + MAX_MICROS, max, micros)) {
+            max = mCounts.get(base + MAX_MICROS);
+        }
+    }
+
+    /**
+     * Return one row per operation and URI that has been called, with the given columns of
+     * {@link MetricsEntry}, or all of them if projection is null
+     */
+    Cursor query(String[] projection) {
+        String[] columns = projection != null ? projection : MetricsEntry.COLUMNS;
+        MatrixCursor cursor = new MatrixCursor(columns);
+        for (int key = 0; key < OPERATIONS.length * mUris.length; key++) {
+            int base = key * STRIDE;
+            long count = countOf(base);
+            if (count == 0) {
+                continue;
+            }
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = valueOf(columns[i], key, base, count);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Print a table of every operation and URI that has been called
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Provider latency in microseconds:");
+        writer.println(String.format(Locale.US, "%-10s %-24s %8s %6s %8s %8s %8s %8s",
+                "operation", "uri", "count", "errors", "mean", "p50", "p99", "max"));
+        for (int key = 0; key < OPERATIONS.length * mUris.length; key++) {
+            int base = key * STRIDE;
+            long count = countOf(base);
+            if (count == 0) {
+                continue;
+            }
+            writer.println(String.format(Locale.US, "%-10s %-24s %8d %6d %8d %8d %8d %8d",
+                    OPERATIONS[key / mUris.length], mUris[key % mUris.length], count,
+                    mCounts.get(base + ERRORS), mCounts.get(base + TOTAL_MICROS) / count,
+                    percentile(base, count, 0.50), percentile(base, count, 0.99),
+                    mCounts.get(base + MAX_MICROS)));
+        }
+    }
+
+    private Object valueOf(String column, int key, int base, long count) {
+        if (MetricsEntry._ID.equals(column)) {
+            return key;
+        } else if (MetricsEntry.COLUMN_OPERATION.equals(column)) {
+            return OPERATIONS[key / mUris.length];
+        } else if (MetricsEntry.COLUMN_URI.equals(column)) {
+            return mUris[key % mUris.length];
+        } else if (MetricsEntry.COLUMN_COUNT.equals(column)) {
+            return count;
+        } else if (MetricsEntry.COLUMN_ERRORS.equals(column)) {
+            return mCounts.get(base + ERRORS);
+        } else if (MetricsEntry.COLUMN_MEAN_MICROS.equals(column)) {
+            return mCounts.get(base + TOTAL_MICROS) / count;
+        } else if (MetricsEntry.COLUMN_P50_MICROS.equals(column)) {
+            return percentile(base, count, 0.50);
+        } else if (MetricsEntry.COLUMN_P99_MICROS.equals(column)) {
+            return percentile(base, count, 0.99);
+        } else if (MetricsEntry.COLUMN_MAX_MICROS.equals(column)) {
+            return mCounts.get(base + MAX_MICROS);
+        }
+        throw new IllegalArgumentException("Unknown metrics column " + column);
+    }
+
+    private long countOf(int base) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mCounts.get(base + i);
+        }
+        return count;
+    }
+
+    /**
+     * Return the middle of the bucket holding the given fraction of the calls, at most the
+     * largest latency recorded
+     */
+    private long percentile(int base, long count, double fraction) {
+        long rank = Math.max(1, (long) Math.ceil(count * fraction));
+        long seen = 0;
+        int bucket = 0;
+        for (; bucket < BUCKETS - 1; bucket++) {
+            seen += mCounts.get(base + bucket);
+            if (seen >= rank) {
+                break;
+            }
+        }
+        long middle = (lowerBoundOf(bucket) + lowerBoundOf(bucket + 1) - 1) / 2;
+        return Math.min(middle, mCounts.get(base + MAX_MICROS));
+    }
+
+    /**
+     * Return the bucket of a latency: values below SUB_BUCKETS get a bucket each, then every
+     * power of two is split into SUB_BUCKETS buckets
+     */
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Return the smallest latency that falls into a bucket
+     */
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS - 1 + SUB_BUCKET_BITS;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+}
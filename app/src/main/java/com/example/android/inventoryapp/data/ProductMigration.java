@@ -0,0 +1,70 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the schema history of ProductDbHelper, bringing the database from version - 1
+ * to version. The steps of an upgrade run in order inside the single transaction
+ * SQLiteOpenHelper opens for onUpgrade, which blocks every other use of the database, so a
+ * step should only change the schema. Work that grows with the number of products belongs in
+ * its {@link Backfill}, which runs in chunks once the database is open.
+ */
+
+abstract class ProductMigration {
+
+    /**
+     * Database version this step brings the schema to
+     */
+    final int version;
+
+    ProductMigration(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Change the schema from version - 1 to version
+     */
+    abstract void migrate(SQLiteDatabase db);
+
+    /**
+     * Return the backfill completing this step, or null if the step is complete once migrated
+     */
+    Backfill getBackfill() {
+        return null;
+    }
+
+    /**
+     * Data work of a migration, done over the products that existed when it was migrated, in
+     * chunks of products by ascending _ID, each chunk in its own transaction. Progress is
+     * saved with each chunk, so a backfill interrupted by the process dying resumes where it
+     * left off. Products inserted or changed after the migration are not the backfill's
+     * concern: the migration must set up triggers or code that keeps those current, and a
+     * backfill must leave alone any product that already is.
+     * <p>
+     * Until a backfill completes, the app sees the data it produces for some products only,
+     * so it must keep working without it. Later migrations must not depend on its data.
+     */
+    abstract static class Backfill {
+
+        /**
+         * Name under which the progress of the backfill is saved; never reuse one
+         */
+        final String name;
+
+        /**
+         * Number of products processed per chunk, and so per transaction
+         */
+        final int chunkRows;
+
+        Backfill(String name, int chunkRows) {
+            this.name = name;
+            this.chunkRows = chunkRows;
+        }
+
+        /**
+         * Process the products with an _ID greater than afterId and at most throughId.
+         * Runs inside a transaction
+         */
+        abstract void fill(SQLiteDatabase db, long afterId, long throughId);
+    }
+}
@@ -1,15 +1,38 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
+import android.content.ClipDescription;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.inventoryapp.data.ProductContract.MetricsEntry;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Creates ContentProvider for Inventory app
@@ -29,6 +52,53 @@ public class ProductProvider extends ContentProvider {
      */
     private static final int INVENTORY_ID = 101;
 
+    /**
+     * URI matcher code for the content URI that adjusts the quantity of one product
+     */
+    private static final int INVENTORY_ID_ADJUST = 102;
+
+    /**
+     * URI matcher code for the content URI that searches the inventory
+     */
+    private static final int INVENTORY_SEARCH = 103;
+
+    /**
+     * URI matcher code for the content URI of the image of one product
+     */
+    private static final int INVENTORY_ID_IMAGE = 104;
+
+    /**
+     * URI matcher code for the content URI of the inventory summary
+     */
+    private static final int INVENTORY_STATS = 105;
+
+    /**
+     * URI matcher code for the content URI of the stock movements of all products
+     */
+    private static final int INVENTORY_MOVEMENTS = 106;
+
+    /**
+     * URI matcher code for the content URI of the stock movements of one product
+     */
+    private static final int INVENTORY_ID_MOVEMENTS = 107;
+
+    /**
+     * URI matcher code for the content URI of an export of the whole inventory
+     */
+    private static final int INVENTORY_EXPORT = 108;
+
+    /**
+     * URI matcher code for the content URI of the provider's latency metrics
+     */
+    private static final int INVENTORY_METRICS = 109;
+
+    /**
+     * URI pattern of each match code, indexed by the code less INVENTORY, naming the metrics
+     */
+    private static final String[] MATCH_NAMES = {"inventory", "inventory/#", "inventory/#/adjust",
+            "inventory/search/*", "inventory/#/image", "inventory/stats", "inventory/movements",
+            "inventory/#/movements", "inventory/export", "inventory/metrics"};
+
     /**
      * UriMatcher object that matches a content URI to the correct code
      */
@@ -41,21 +111,186 @@ public class ProductProvider extends ContentProvider {
 
         //Content URI maps to the code for one row of the inventory table
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_INVENTORY + "/#", INVENTORY_ID);
+
+        //Content URI maps to the code for adjusting the quantity of one row
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/#/" + ProductContract.PATH_ADJUST, INVENTORY_ID_ADJUST);
+
+        //Content URI maps to the code for a full-text search of the inventory table
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_SEARCH + "/*", INVENTORY_SEARCH);
+
+        //Content URI maps to the code for the image file of one row
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/#/" + ProductContract.PATH_IMAGE, INVENTORY_ID_IMAGE);
+
+        //Content URI maps to the code for the summary row of the inventory
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_STATS, INVENTORY_STATS);
+
+        //Content URIs map to the codes for the stock movements of all products and of one row
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_MOVEMENTS, INVENTORY_MOVEMENTS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/#/" + ProductContract.PATH_MOVEMENTS, INVENTORY_ID_MOVEMENTS);
+
+        //Content URI maps to the code for streaming an export of the whole inventory
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_EXPORT, INVENTORY_EXPORT);
+
+        //Content URI maps to the code for the latency metrics of the provider
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_INVENTORY + "/" + ProductContract.PATH_METRICS, INVENTORY_METRICS);
     }
 
+    /**
+     * Movements are compacted into the inventory table once this many have been appended
+     */
+    private static final int COMPACT_AFTER_MOVEMENTS = 256;
+
+    /**
+     * Bulk inserts of at least this many rows checkpoint the write-ahead log when they finish
+     */
+    private static final int CHECKPOINT_AFTER_ROWS = 1000;
+
+    /**
+     * Maximum number of operations applyBatch will run without the caller marking a yield point
+     */
+    private static final int MAX_OPERATIONS_PER_YIELD_POINT = 500;
+
+    /**
+     * Number of product rows kept in the row cache
+     */
+    private static final int CACHED_ROWS = 256;
+
+    /**
+     * Changes made within this many milliseconds of each other are notified together
+     */
+    private static final long NOTIFY_WINDOW_MILLIS = 100;
+
+    /**
+     * Longest a quantity adjustment or product edit waits for others to share its commit
+     */
+    private static final long WRITE_DELAY_MILLIS = 4;
+
+    /**
+     * Most writes committed together in one transaction
+     */
+    private static final int WRITE_BATCH_SIZE = 64;
+
     /**
      * Database helper object
      */
     public ProductDbHelper mDbHelper;
 
+    /**
+     * Storage engine that single product inserts, and quantity adjustments inside applyBatch,
+     * are delegated to
+     */
+    private ProductRepository mRepository;
+
+    /**
+     * Group-commits the quantity adjustments and single product edits made outside of applyBatch
+     */
+    private ProductWriteQueue mWriteQueue;
+
+    /**
+     * File store holding the product images
+     */
+    private ProductImageStore mImageStore;
+
+    /**
+     * Version of the image written last, see {@link #nextImageVersion()}
+     */
+    private long mLastImageVersion;
+
+    /**
+     * Recently read products, answering queries for a single product
+     */
+    private final ProductCache mCache = new ProductCache(CACHED_ROWS);
+
+    /**
+     * Queries taking at least this many milliseconds are written to the slow query log
+     */
+    private static final long SLOW_QUERY_MILLIS = 50;
+
+    private static final String SLOW_QUERY_LOG_NAME = "slow_queries.log";
+
+    /**
+     * Opens the database and prefetches the first page of the list at process start
+     */
+    private ProductStartup mStartup;
+
+    /**
+     * Latency histograms of every entry point, by URI match
+     */
+    private final ProductMetrics mMetrics = new ProductMetrics(MATCH_NAMES);
+
+    /**
+     * Log of the queries that took SLOW_QUERY_MILLIS or more, with their plans
+     */
+    private ProductSlowQueryLog mSlowQueryLog;
+
+    /**
+     * Sends change notifications, coalescing bursts
+     */
+    private ProductChangeNotifier mNotifier;
+
+    /**
+     * True while the calling thread is inside applyBatch, so that change notifications
+     * are held back and sent once when the batch finishes
+     */
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
+
+    /**
+     * True if any operation of the batch running on the calling thread changed data
+     */
+    private final ThreadLocal<Boolean> mBatchHasChanges = new ThreadLocal<Boolean>();
+
+    /**
+     * Products deleted by the batch running on the calling thread, whose images are deleted
+     * once the batch commits; a batch that rolls back keeps its rows and so their images
+     */
+    private final ThreadLocal<ArrayList<Long>> mBatchDeletedImages = new ThreadLocal<ArrayList<Long>>();
+
     @Override
     public boolean onCreate() {
         mDbHelper = new ProductDbHelper(getContext());
+        mStartup = new ProductStartup(mDbHelper);
+        mStartup.start();
+        mRepository = new SqliteProductRepository(mDbHelper);
+        mWriteQueue = new ProductWriteQueue(mDbHelper, WRITE_DELAY_MILLIS, WRITE_BATCH_SIZE);
+        mImageStore = new ProductImageStore(getContext());
+        mSlowQueryLog = new ProductSlowQueryLog(getContext(), SLOW_QUERY_LOG_NAME, mDbHelper, SLOW_QUERY_MILLIS);
+        mNotifier = new ProductChangeNotifier(getContext().getContentResolver(), ProductEntry.CONTENT_URI,
+                NOTIFY_WINDOW_MILLIS);
         return true;
     }
 
+    /**
+     * Query the URI and record how long it took, including filling the cursor's first window
+     * as CursorLoader does, since that is when a query's statement actually runs.
+     * Queries over the slow query threshold are logged with their plan
+     */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        long start = ProductMetrics.start();
+        int match = sUriMatcher.match(uri);
+        boolean failed = true;
+        ProductSlowQueryLog.queryStarted();
+        try {
+            Cursor cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder);
+            int rows = cursor.getCount();
+            failed = false;
+            mSlowQueryLog.queryFinished(match >= INVENTORY ? MATCH_NAMES[match - INVENTORY] : uri.getPath(),
+                    rows, start);
+            return cursor;
+        } finally {
+            mMetrics.record(ProductMetrics.OP_QUERY, match - INVENTORY, start, failed);
+        }
+    }
+
+    private Cursor queryUri(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         //Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -67,97 +302,461 @@ public class ProductProvider extends ContentProvider {
 
         switch (match) {
             case INVENTORY:
+                if (uri.getQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT) != null) {
+                    //The first page of the list may have been read already, at process start
+                    cursor = mStartup.takeFirstPage(uri, projection, selection, sortOrder);
+                    if (cursor != null) {
+                        break;
+                    }
+                    //Query one page of the table, starting after the key given in the URI
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs, sortOrder);
+                    break;
+                }
                 //Query the entire table directly, could contain multiple rows
-                cursor = database.query(ProductEntry.TABLE_NAME, projection,
-                        selection, selectionArgs, null, null, sortOrder);
+                cursor = ProductSlowQueryLog.query(database, ProductEntry.VIEW_NAME, projection,
+                        selection, selectionArgs, sortOrder, null);
                 break;
 
             case INVENTORY_ID:
+                long id = ContentUris.parseId(uri);
+                if (ProductCache.canServe(projection)) {
+                    //Answer from the row cache, reading the whole row into it on a miss
+                    cursor = queryCachedProduct(database, id, projection);
+                    break;
+                }
+
                 //Extract the ID from the URI and query the item in that row only
                 selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                selectionArgs = new String[]{String.valueOf(id)};
 
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection,
-                        selectionArgs, null, null, sortOrder);
+                cursor = ProductSlowQueryLog.query(database, ProductEntry.VIEW_NAME, projection, selection,
+                        selectionArgs, sortOrder, null);
+                break;
+
+            case INVENTORY_SEARCH:
+                //Look the search words up in the full-text index and join back to the products
+                cursor = searchInventory(database, uri.getLastPathSegment(), projection,
+                        selection, selectionArgs, sortOrder);
+                break;
+
+            case INVENTORY_STATS:
+                //Read the single summary row the triggers keep current
+                cursor = ProductSlowQueryLog.query(database, StatsEntry.TABLE_NAME, projection, StatsEntry._ID + "=?",
+                        new String[]{String.valueOf(StatsEntry.ROW_ID)}, null, null);
+                break;
+
+            case INVENTORY_MOVEMENTS:
+            case INVENTORY_ID_MOVEMENTS:
+                //Read the ledger, optionally for one product and within a time range
+                cursor = queryMovements(database, uri, match == INVENTORY_ID_MOVEMENTS ? parseProductId(uri) : -1,
+                        projection, selection, selectionArgs, sortOrder);
+                break;
+
+            case INVENTORY_METRICS:
+                //Read back the latency histograms of every entry point
+                cursor = mMetrics.query(projection);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
-        //Set notification URI on the cursor so that if the data changes, we know to update the cursor
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        //Set notification URI on the cursor so that if the data changes, we know to update the cursor.
+        //Search results, the summary and the movements of all products can change whenever any
+        //product changes, so they watch the whole inventory
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                match == INVENTORY_SEARCH || match == INVENTORY_STATS || match == INVENTORY_MOVEMENTS
+                        ? ProductEntry.CONTENT_URI : uri);
 
         return cursor;
     }
 
-    @Override
-    public Uri insert(Uri uri, ContentValues values) {
-        //Check that name is not null
-        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Product requires a name");
+    /**
+     * Return one product from the row cache. On a miss, read all of its columns from the
+     * database and cache them, so that later queries with any projection hit
+     */
+    private Cursor queryCachedProduct(SQLiteDatabase database, long id, String[] projection) {
+        Cursor cached = mCache.get(id, projection);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = mCache.getGeneration();
+        Cursor row = ProductSlowQueryLog.query(database, ProductEntry.VIEW_NAME, ProductCache.COLUMNS,
+                ProductEntry._ID + "=?", new String[]{String.valueOf(id)}, null, null);
+        try {
+            if (!row.moveToFirst()) {
+                return new MatrixCursor(projection == null ? ProductCache.COLUMNS : projection, 0);
+            }
+            return mCache.put(id, row, generation, projection);
+        } finally {
+            row.close();
+        }
+    }
+
+    /**
+     * Query one page of the inventory as described by the paging parameters of the URI.
+     * The page starts right after the row identified by the after key, so the database seeks
+     * straight to it through an index instead of counting past an offset
+     */
+    private static Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                                    String selection, String[] selectionArgs, String sortOrder) {
+        int limit;
+        try {
+            limit = Integer.parseInt(uri.getQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page size in " + uri);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid page size in " + uri);
+        }
+
+        boolean sortByName;
+        if (TextUtils.isEmpty(sortOrder) || ProductEntry._ID.equals(sortOrder)) {
+            sortByName = false;
+        } else if (ProductEntry.COLUMN_PRODUCT_NAME.equals(sortOrder)) {
+            sortByName = true;
+        } else {
+            throw new IllegalArgumentException("Paged queries can only be sorted by "
+                    + ProductEntry._ID + " or " + ProductEntry.COLUMN_PRODUCT_NAME);
         }
 
-        //Check that brand is not null
-        String brand = values.getAsString(ProductEntry.COLUMN_PRODUCT_BRAND);
-        if (brand == null) {
-            throw new IllegalArgumentException("Product requires a brand");
+        String afterId = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_AFTER_ID);
+        String afterName = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_AFTER_NAME);
+
+        //Build the keyset condition that skips every row up to and including the after key
+        String keySelection = null;
+        String[] keyArgs = null;
+        if (sortByName && afterName != null) {
+            if (afterId == null) {
+                throw new IllegalArgumentException("Paging by name requires the _ID of the last row in " + uri);
+            }
+            keySelection = ProductEntry.COLUMN_PRODUCT_NAME + " >= ? AND ("
+                    + ProductEntry.COLUMN_PRODUCT_NAME + " > ? OR " + ProductEntry._ID + " > ?)";
+            keyArgs = new String[]{afterName, afterName, afterId};
+        } else if (!sortByName && afterId != null) {
+            keySelection = ProductEntry._ID + " > ?";
+            keyArgs = new String[]{afterId};
         }
 
-        Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
-        if (price == null || price < 0) {
-            throw new IllegalArgumentException("Product requires a valid price");
+        if (keySelection != null) {
+            if (TextUtils.isEmpty(selection)) {
+                selection = keySelection;
+                selectionArgs = keyArgs;
+            } else {
+                selection = "(" + selection + ") AND " + keySelection;
+                selectionArgs = concat(selectionArgs, keyArgs);
+            }
         }
 
-        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-        if (quantity == null || quantity < 0) {
-            throw new IllegalArgumentException("Product requires a valid quantity");
+        String pageOrder = sortByName
+                ? ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry._ID
+                : ProductEntry._ID;
+
+        return ProductSlowQueryLog.query(database, ProductEntry.VIEW_NAME, projection, selection, selectionArgs,
+                pageOrder, String.valueOf(limit));
+    }
+
+    /**
+     * Query stock movements in the order they were made, limited to one product unless
+     * productId is -1, and to the time range given by the query parameters of the URI
+     */
+    private static Cursor queryMovements(SQLiteDatabase database, Uri uri, long productId, String[] projection,
+                                         String selection, String[] selectionArgs, String sortOrder) {
+        StringBuilder rangeSelection = new StringBuilder();
+        ArrayList<String> rangeArgs = new ArrayList<String>();
+        if (productId != -1) {
+            rangeSelection.append(MovementEntry.COLUMN_PRODUCT_ID).append(" = ?");
+            rangeArgs.add(String.valueOf(productId));
+        }
+        String from = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_FROM_TIME);
+        if (from != null) {
+            rangeSelection.append(rangeArgs.isEmpty() ? "" : " AND ").append(MovementEntry.COLUMN_TIME).append(" >= ?");
+            rangeArgs.add(String.valueOf(parseTime(uri, from)));
+        }
+        String to = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_TO_TIME);
+        if (to != null) {
+            rangeSelection.append(rangeArgs.isEmpty() ? "" : " AND ").append(MovementEntry.COLUMN_TIME).append(" < ?");
+            rangeArgs.add(String.valueOf(parseTime(uri, to)));
         }
 
-        String image = values.getAsString(ProductEntry.COLUMN_PRODUCT_IMAGE);
-        if (image == null) {
-            throw new IllegalArgumentException("Product requires an image");
+        if (rangeSelection.length() > 0) {
+            String[] args = rangeArgs.toArray(new String[rangeArgs.size()]);
+            if (TextUtils.isEmpty(selection)) {
+                selection = rangeSelection.toString();
+                selectionArgs = args;
+            } else {
+                selection = "(" + selection + ") AND " + rangeSelection;
+                selectionArgs = concat(selectionArgs, args);
+            }
         }
 
-        String supplierName = values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
-        if (supplierName == null) {
-            throw new IllegalArgumentException("Product requires a supplier name");
+        return ProductSlowQueryLog.query(database, MovementEntry.TABLE_NAME, projection, selection, selectionArgs,
+                TextUtils.isEmpty(sortOrder) ? MovementEntry._ID : sortOrder, null);
+    }
+
+    private static long parseTime(Uri uri, String time) {
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time in " + uri);
         }
+    }
 
-        String supplierPhone = values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE);
-        if (supplierPhone == null) {
-            throw new IllegalArgumentException("Product requires a supplier phone number");
+    /**
+     * Return the arguments of first followed by those of second. Either may be null
+     */
+    private static String[] concat(String[] first, String[] second) {
+        int firstLength = first == null ? 0 : first.length;
+        int secondLength = second == null ? 0 : second.length;
+        String[] args = new String[firstLength + secondLength];
+        for (int i = 0; i < firstLength; i++) {
+            args[i] = first[i];
         }
+        for (int i = 0; i < secondLength; i++) {
+            args[firstLength + i] = second[i];
+        }
+        return args;
+    }
 
-        String supplierEmail = values.getAsString(ProductEntry.COLUMN_SUPPLIER_EMAIL);
-        if (supplierEmail == null) {
-            throw new IllegalArgumentException("Product requires a supplier email");
+    /**
+     * Query the products matching the given search text. Every word of the text is matched as a
+     * prefix of a word in the name, brand or supplier name. Unless a sort order is given,
+     * products with the most matches come first, then by name.
+     * An additional selection on the inventory table may be given
+     */
+    private static Cursor searchInventory(SQLiteDatabase database, String query, String[] projection,
+                                          String selection, String[] selectionArgs, String sortOrder) {
+        String match = buildMatchQuery(query);
+        if (match == null) {
+            //Nothing searchable in the query, so nothing can match
+            match = "\"\"";
         }
 
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        //offsets() lists four numbers per matching word, so the number of spaces
+        //in it grows with the number of matches and serves as the rank
+        String sql = "SELECT " + (projection == null ? ProductEntry.VIEW_NAME + ".*" : TextUtils.join(", ", projection))
+                + " FROM " + ProductEntry.VIEW_NAME
+                + " JOIN (SELECT docid, offsets(" + ProductEntry.FTS_TABLE_NAME + ") AS hits"
+                + " FROM " + ProductEntry.FTS_TABLE_NAME
+                + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH ?) AS fts"
+                + " ON " + ProductEntry.VIEW_NAME + "." + ProductEntry._ID + " = fts.docid"
+                + (TextUtils.isEmpty(selection) ? "" : " WHERE (" + selection + ")")
+                + " ORDER BY " + (TextUtils.isEmpty(sortOrder)
+                ? "length(hits) - length(replace(hits, ' ', '')) DESC, " + ProductEntry.COLUMN_PRODUCT_NAME
+                : sortOrder);
 
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
+        return ProductSlowQueryLog.rawQuery(database, sql, concat(new String[]{match}, selectionArgs));
+    }
+
+    /**
+     * Turn free text typed by the user into an FTS MATCH expression that matches every word
+     * as a prefix, e.g. "La Mer-cream" becomes "La* Mer* cream*".
+     * Return null if the text contains no letters or digits
+     */
+    private static String buildMatchQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        boolean inWord = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(c);
+                inWord = true;
+            } else if (inWord) {
+                match.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            match.append('*');
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        long start = ProductMetrics.start();
+        boolean failed = true;
+        try {
+            Uri newUri = insertUri(uri, values);
+            failed = false;
+            return newUri;
+        } finally {
+            mMetrics.record(ProductMetrics.OP_INSERT, sUriMatcher.match(uri) - INVENTORY, start, failed);
+        }
+    }
+
+    private Uri insertUri(Uri uri, ContentValues values) {
+        ProductValidator.validateInsert(values);
+
+        long id = mRepository.insert(ProductCodec.fromContentValues(values));
 
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
-        // Notify listeners that data has changed for the inventory content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify listeners of the new row; observers of the whole inventory hear about it too
+        notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
 
         //Return the new URI with the ID of the new row appended at the end
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Insert many products at once. Every row is validated before the database is touched,
+     * then all rows are written inside a single transaction by the repository's insertAll,
+     * and listeners are notified once at the end instead of once per row.
+     * A row the database refuses fails the whole batch with an SQLiteException and nothing is
+     * inserted. Return the number of rows that were inserted
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = ProductMetrics.start();
+        boolean failed = true;
+        try {
+            int rowsInserted = bulkInsertUri(uri, values);
+            failed = false;
+            return rowsInserted;
+        } finally {
+            mMetrics.record(ProductMetrics.OP_BULK_INSERT, sUriMatcher.match(uri) - INVENTORY, start, failed);
+        }
+    }
+
+    private int bulkInsertUri(Uri uri, ContentValues[] values) {
+        int match = sUriMatcher.match(uri);
+        if (match == INVENTORY_MOVEMENTS) {
+            return appendMovements(values);
+        }
+        if (match != INVENTORY) {
+            throw new IllegalArgumentException("Bulk insert is not supported for " + uri);
+        }
+
+        //Validate every row up front so a bad row never leaves a half written catalog behind
+        List<Product> products = new ArrayList<Product>(values.length);
+        for (ContentValues row : values) {
+            ProductValidator.validateInsert(row);
+            products.add(ProductCodec.fromContentValues(row));
+        }
+        int rowsInserted = mRepository.insertAll(products);
+
+        if (rowsInserted != 0) {
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+
+        //Fold a large batch back into the database file now rather than at the next read
+        if (rowsInserted >= CHECKPOINT_AFTER_ROWS) {
+            mDbHelper.checkpoint();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Apply a list of operations inside a single transaction. Operations marked with
+     * withYieldAllowed(true) let the transaction yield to other connections so that very
+     * large batches do not starve readers. Change notifications from the individual
+     * operations are coalesced into one notification for the whole batch
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        mApplyingBatch.set(true);
+        mBatchHasChanges.set(false);
+        mBatchDeletedImages.set(new ArrayList<Long>());
+        boolean committed = false;
+        database.beginTransactionNonExclusive();
+        try {
+            final int numOperations = operations.size();
+            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            int opsSinceYieldPoint = 0;
+            for (int i = 0; i < numOperations; i++) {
+                if (++opsSinceYieldPoint > MAX_OPERATIONS_PER_YIELD_POINT) {
+                    throw new OperationApplicationException("Too many operations between yield points, "
+                            + "max is " + MAX_OPERATIONS_PER_YIELD_POINT, i);
+                }
+
+                final ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    opsSinceYieldPoint = 0;
+                    database.yieldIfContendedSafely();
+                }
+
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+            return results;
+        } finally {
+            database.endTransaction();
+            mApplyingBatch.set(false);
+
+            ArrayList<Long> deletedImages = mBatchDeletedImages.get();
+            mBatchDeletedImages.set(null);
+            if (committed) {
+                for (long id : deletedImages) {
+                    mImageStore.delete(id);
+                }
+            }
+
+            //Send the single notification for everything the batch changed. Rows cached while
+            //the batch was open may hold values it rolled back or that other connections
+            //read before it committed, so drop them all
+            if (mBatchHasChanges.get()) {
+                mCache.invalidateAll();
+                mNotifier.notifyChange(ProductEntry.CONTENT_URI);
+            }
+        }
+    }
+
+    /**
+     * Notify listeners that data has changed for the given URI, or remember the change
+     * until the end of the batch if the calling thread is inside applyBatch.
+     * Changes to one product should pass its row URI, so that only observers of that
+     * product and of the whole inventory are told
+     */
+    private void notifyChange(Uri uri) {
+        mStartup.invalidate();
+        if (Boolean.TRUE.equals(mApplyingBatch.get())) {
+            mBatchHasChanges.set(true);
+            return;
+        }
+        mNotifier.notifyChange(uri);
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        long start = ProductMetrics.start();
+        boolean failed = true;
+        try {
+            int rowsUpdated = updateUri(uri, values, selection, selectionArgs);
+            failed = false;
+            return rowsUpdated;
+        } finally {
+            mMetrics.record(ProductMetrics.OP_UPDATE, sUriMatcher.match(uri) - INVENTORY, start, failed);
+        }
+    }
+
+    private int updateUri(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case INVENTORY:
                 return updateInventory(uri, values, selection, selectionArgs);
             case INVENTORY_ID:
+                if (!Boolean.TRUE.equals(mApplyingBatch.get())) {
+                    return updateProduct(ContentUris.parseId(uri), values);
+                }
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
                 return updateInventory(uri, values, selection, selectionArgs);
+            case INVENTORY_ID_ADJUST:
+                Integer delta = values.getAsInteger(ProductEntry.ADJUST_QUANTITY_DELTA);
+                if (delta == null) {
+                    throw new IllegalArgumentException("Adjustment requires a quantity delta");
+                }
+                return adjustQuantity(parseProductId(uri), delta);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -169,116 +768,490 @@ public class ProductProvider extends ContentProvider {
      * Return the number of rows that were successfully updated
      */
     private int updateInventory(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-            //If the COLUMN_PRODUCT_NAME key is present, check that the value is not null
-            if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
-                String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-                if (name == null) {
-                    throw new IllegalArgumentException("Product requires a name");
-                }
+            //Check the value of every product column that is present
+            ProductValidator.validateUpdate(values);
+
+            if (values.size() == 0) {
+                return 0;
             }
 
-            //If the COLUMN_PRODUCT_BRAND key is present, check that the value is not null
-            if (values.containsKey(ProductEntry.COLUMN_PRODUCT_BRAND)) {
-                String brand = values.getAsString(ProductEntry.COLUMN_PRODUCT_BRAND);
-                if (brand == null) {
-                    throw new IllegalArgumentException("Product requires a brand");
-                }
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+            int rowsUpdated;
+            database.beginTransactionNonExclusive();
+            try {
+                rowsUpdated = SqliteProductRepository.updateProducts(database, values, selection, selectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
             }
-            //If the COLUMN_PRODUCT_PRICE key is present, check that the value is not null
-            if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
-                Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
-                if (price == null || price < 0) {
-                    throw new IllegalArgumentException("Product requires a valid price");
+
+            if (rowsUpdated != 0)
+
+            {
+                //A single product URI names the only row that changed; a selection could match any
+                if (sUriMatcher.match(uri) == INVENTORY_ID) {
+                    long id = ContentUris.parseId(uri);
+                    mCache.invalidate(id);
+                    notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+                } else {
+                    mCache.invalidateAll();
+                    notifyChange(ProductEntry.CONTENT_URI);
                 }
             }
-            //If the COLUMN_PRODUCT_QUANTITY key is present, check that the value is not null
-            if (values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
-                Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-                if (quantity == null || quantity < 0) {
-                    throw new IllegalArgumentException("Product requires a valid quantity");
-                }
+            movementsAppended(values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY) ? rowsUpdated : 0);
+
+            return rowsUpdated;
+    }
+
+    /**
+     * Update the columns of one product through the write queue, so that the edit shares its
+     * commit with any other writes queued at the same time.
+     * Return the number of rows that were updated
+     */
+    private int updateProduct(long id, ContentValues values) {
+        if (values.size() == 0) {
+            return 0;
+        }
+        int rowsUpdated = ProductWriteQueue.await(mWriteQueue.update(id, values));
+
+        if (rowsUpdated != 0) {
+            mCache.invalidate(id);
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+            movementsAppended(values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY) ? 1 : 0);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Append many movements in one transaction. Each row needs a product ID and a delta and may
+     * give a reason. Movements for missing products or that would make a quantity negative are
+     * skipped. Return the number of movements appended
+     */
+    private int appendMovements(ContentValues[] values) {
+        for (ContentValues row : values) {
+            if (row.getAsLong(MovementEntry.COLUMN_PRODUCT_ID) == null
+                    || row.getAsInteger(MovementEntry.COLUMN_DELTA) == null) {
+                throw new IllegalArgumentException("Movement requires a product ID and a delta");
             }
-            //If the COLUMN_PRODUCT_IMAGE key is present, check that the value is not null
-            if (values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE)) {
-                String image = values.getAsString(ProductEntry.COLUMN_PRODUCT_IMAGE);
-                if (image == null) {
-                    throw new IllegalArgumentException("Product requires an image");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ArrayList<Long> productIds = new ArrayList<Long>();
+        database.beginTransactionNonExclusive();
+        SQLiteStatement append = database.compileStatement(SqliteProductRepository.SQL_APPEND_MOVEMENT);
+        try {
+            long time = System.currentTimeMillis();
+            for (ContentValues row : values) {
+                long productId = row.getAsLong(MovementEntry.COLUMN_PRODUCT_ID);
+                int delta = row.getAsInteger(MovementEntry.COLUMN_DELTA);
+                String reason = row.getAsString(MovementEntry.COLUMN_REASON);
+                if (SqliteProductRepository.appendMovement(append, productId, delta, reason, time)) {
+                    productIds.add(productId);
                 }
             }
-            //If the COLUMN_SUPPLIER_NAME key is present, check that the value is not null
-            if (values.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME)) {
-                String supplierName = values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
-                if (supplierName == null) {
-                    throw new IllegalArgumentException("Product requires a supplier name");
-                }
+            database.setTransactionSuccessful();
+        } finally {
+            append.close();
+            database.endTransaction();
+        }
+
+        for (long productId : productIds) {
+            mCache.invalidate(productId);
+        }
+        if (!productIds.isEmpty()) {
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        movementsAppended(productIds.size());
+        return productIds.size();
+    }
+
+    /**
+     * Compact the ledger once enough movements have accumulated since the last compaction,
+     * if count says any were just appended. The number accumulated is read from the ledger,
+     * so movements appended before the process restarted count too.
+     * Must be called outside of any transaction the movements were appended in
+     */
+    private void movementsAppended(int count) {
+        if (count == 0) {
+            return;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (ProductDbHelper.uncompactedMovements(database) >= COMPACT_AFTER_MOVEMENTS) {
+            ProductDbHelper.compactMovements(database);
+        }
+    }
+
+    /**
+     * Add delta to the quantity of the product with the given ID and notify listeners.
+     * Return 1 if the quantity was changed, or 0 if the product does not exist or the
+     * quantity would have dropped below zero
+     */
+    private int adjustQuantity(long id, int delta) {
+        //Inside applyBatch the calling thread holds the transaction, so the writer could not commit
+        int quantity = Boolean.TRUE.equals(mApplyingBatch.get())
+                ? mRepository.adjustQuantity(id, delta)
+                : ProductWriteQueue.await(mWriteQueue.adjustQuantity(id, delta));
+        int rowsUpdated = quantity == -1 ? 0 : 1;
+
+        if (rowsUpdated != 0) {
+            mCache.invalidate(id);
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+            movementsAppended(rowsUpdated);
+        }
+
+        return rowsUpdated;
+    }
+
+    /**
+     * Handle {@link ProductContract#METHOD_ADJUST_QUANTITY}: adjust the quantity and read the new
+     * value back inside the same transaction, so the caller sees the result of its own adjustment.
+     * The adjustment goes through the write queue and shares its commit with concurrent callers.
+     * Calls are recorded in the metrics under the inventory URI
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = ProductMetrics.start();
+        boolean failed = true;
+        try {
+            Bundle result = callMethod(method, arg, extras);
+            failed = false;
+            return result;
+        } finally {
+            mMetrics.record(ProductMetrics.OP_CALL, 0, start, failed);
+        }
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        if (ProductContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("Slow query threshold requires a number of milliseconds");
             }
-            //If the COLUMN_SUPPLIER_PHONE key is present, check that the value is not null
-            if (values.containsKey(ProductEntry.COLUMN_SUPPLIER_PHONE)) {
-                String supplierPhone = values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE);
-                if (supplierPhone == null) {
-                    throw new IllegalArgumentException("Product requires a supplier phone number");
-                }
+            mSlowQueryLog.setThresholdMillis(Long.parseLong(arg));
+            return new Bundle();
+        }
+        if (ProductContract.METHOD_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(ProductContract.CACHE_STATS_HITS, mCache.getHitCount());
+            stats.putInt(ProductContract.CACHE_STATS_MISSES, mCache.getMissCount());
+            stats.putInt(ProductContract.CACHE_STATS_SIZE, mCache.getSize());
+            return stats;
+        }
+        if (ProductContract.METHOD_IMAGE_WRITTEN.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("Image written requires a product ID");
             }
-            //If the COLUMN_SUPPLIER_EMAIL key is present, check that the value is not null
-            if (values.containsKey(ProductEntry.COLUMN_SUPPLIER_EMAIL)) {
-                String supplierEmail = values.getAsString(ProductEntry.COLUMN_SUPPLIER_EMAIL);
-                if (supplierEmail == null) {
-                    throw new IllegalArgumentException("Product requires a supplier email");
-                }
+            imageWritten(Long.parseLong(arg));
+            return new Bundle();
+        }
+        if (!ProductContract.METHOD_ADJUST_QUANTITY.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        if (arg == null || extras == null || !extras.containsKey(ProductEntry.ADJUST_QUANTITY_DELTA)) {
+            throw new IllegalArgumentException("Adjustment requires a product ID and a quantity delta");
+        }
+
+        long id = Long.parseLong(arg);
+        int delta = extras.getInt(ProductEntry.ADJUST_QUANTITY_DELTA);
+
+        Bundle result = new Bundle();
+        int quantity = ProductWriteQueue.await(mWriteQueue.adjustQuantity(id, delta));
+
+        //The write queue has committed the adjustment by the time it completes
+        if (quantity != -1) {
+            result.putInt(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+            mCache.invalidate(id);
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+            movementsAppended(1);
+        }
+        return result;
+    }
+
+    /**
+     * Extract the product ID from a URI of the form inventory/#/...
+     */
+    private static long parseProductId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Open the image file of a product so the caller can stream it without copying it through
+     * a cursor. Opening it for writing stores the image; once the file is closed the product's
+     * image column points at the new version.
+     * Supported modes are "r", "w", "wt", "wa", "rw" and "rwt".
+     * Opening the export URI returns the read end of a pipe that a background thread fills
+     * with the whole inventory, so the caller reads a byte stream instead of CursorWindows
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        if (match == INVENTORY_EXPORT) {
+            if (!"r".equals(mode)) {
+                throw new FileNotFoundException("Exports can only be read: " + uri);
             }
+            String format = ProductExportWriter.formatOf(uri);
+            return ProductExportWriter.open(mDbHelper, uri, format);
+        }
+        if (match != INVENTORY_ID_IMAGE) {
+            throw new FileNotFoundException("No files supported for " + uri);
+        }
 
-            if (values.size() == 0) {
-                return 0;
+        long id = parseProductId(uri);
+        int fileMode = parseFileMode(mode);
+        if (fileMode == ParcelFileDescriptor.MODE_READ_ONLY) {
+            return ParcelFileDescriptor.open(mImageStore.getFile(id), fileMode);
+        }
+
+        //Open the file first, so a failure leaves the product pointing at its old image.
+        //The row is pointed at the new image once the writer has closed it
+        File image = mImageStore.getFileForWrite(id);
+        ParcelFileDescriptor file = openImageForWrite(image, fileMode, id);
+        if (DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), ProductEntry.TABLE_NAME,
+                ProductEntry._ID + "=?", new String[]{String.valueOf(id)}) == 0) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close image of missing product " + id, e);
             }
+            image.delete();
+            throw new FileNotFoundException("No product for " + uri);
+        }
+        return file;
+    }
 
-            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    /**
+     * Open an image file for writing. From KitKat on, observers are told once the writer closes
+     * the file; before that the writer calls {@link ProductContract#METHOD_IMAGE_WRITTEN} itself.
+     * Telling them earlier would have them read a partly written image
+     */
+    private ParcelFileDescriptor openImageForWrite(File image, int fileMode, final long id)
+            throws FileNotFoundException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return ParcelFileDescriptor.open(image, fileMode);
+        }
+        try {
+            return ParcelFileDescriptor.open(image, fileMode, mNotifier.getHandler(),
+                    new ParcelFileDescriptor.OnCloseListener() {
+                        @Override
+                        public void onClose(IOException e) {
+                            imageWritten(id);
+                        }
+                    });
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            FileNotFoundException notOpened = new FileNotFoundException("Failed to open " + image);
+            notOpened.initCause(e);
+            throw notOpened;
+        }
+    }
 
-            int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+    /**
+     * Point a product whose image was just written at a new version of it, so cached copies
+     * of the old image are not shown, and tell its observers
+     */
+    private void imageWritten(long id) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, ProductImageStore.getReference(id, nextImageVersion()));
+        int rowsUpdated = mDbHelper.getWritableDatabase().update(ProductEntry.TABLE_NAME, values,
+                ProductEntry._ID + "=?", new String[]{String.valueOf(id)});
+        if (rowsUpdated != 0) {
+            mCache.invalidate(id);
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+        }
+    }
 
-            if (rowsUpdated != 0)
+    /**
+     * Return an image version later than any handed out before: the current time, moved on
+     * by one if an image was written within the same millisecond
+     */
+    private synchronized long nextImageVersion() {
+        mLastImageVersion = Math.max(System.currentTimeMillis(), mLastImageVersion + 1);
+        return mLastImageVersion;
+    }
 
-            {
-                getContext().getContentResolver().notifyChange(uri, null);
-            }
+    /**
+     * Open the image of a product for callers that ask for an image MIME type
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types != null) {
+            return new AssetFileDescriptor(openFile(uri, "r"), 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+        }
+        return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+    }
 
-            return rowsUpdated;
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        String type;
+        switch (sUriMatcher.match(uri)) {
+            case INVENTORY_ID_IMAGE:
+                type = ProductEntry.CONTENT_IMAGE_TYPE;
+                break;
+            case INVENTORY_EXPORT:
+                //An unknown format has no stream; opening it still fails in openFile
+                type = ProductExportWriter.mimeTypeOf(ProductExportWriter.findFormat(uri));
+                break;
+            default:
+                return null;
+        }
+        if (type == null) {
+            return null;
+        }
+        return ClipDescription.compareMimeTypes(type, mimeTypeFilter) ? new String[]{type} : null;
+    }
+
+    /**
+     * Translate a file mode string as passed to openFile into ParcelFileDescriptor flags
+     */
+    private static int parseFileMode(String mode) {
+        if ("r".equals(mode)) {
+            return ParcelFileDescriptor.MODE_READ_ONLY;
+        } else if ("w".equals(mode) || "wt".equals(mode)) {
+            return ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                    | ParcelFileDescriptor.MODE_TRUNCATE;
+        } else if ("wa".equals(mode)) {
+            return ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                    | ParcelFileDescriptor.MODE_APPEND;
+        } else if ("rw".equals(mode)) {
+            return ParcelFileDescriptor.MODE_READ_WRITE | ParcelFileDescriptor.MODE_CREATE;
+        } else if ("rwt".equals(mode)) {
+            return ParcelFileDescriptor.MODE_READ_WRITE | ParcelFileDescriptor.MODE_CREATE
+                    | ParcelFileDescriptor.MODE_TRUNCATE;
+        }
+        throw new IllegalArgumentException("Invalid file mode " + mode);
     }
 
         @Override
         public int delete (Uri uri, String selection, String[]selectionArgs){
+            long start = ProductMetrics.start();
+            boolean failed = true;
+            try {
+                int rowsDeleted = deleteUri(uri, selection, selectionArgs);
+                failed = false;
+                return rowsDeleted;
+            } finally {
+                mMetrics.record(ProductMetrics.OP_DELETE, sUriMatcher.match(uri) - INVENTORY, start, failed);
+            }
+        }
+
+        private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
             SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
             int rowsDeleted;
 
+            //URI to notify: the row of a single deleted product, otherwise the whole inventory
+            Uri changedUri = ProductEntry.CONTENT_URI;
+
             final int match = sUriMatcher.match(uri);
             switch (match) {
                 case INVENTORY:
-                    rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                    //Inside a batch the deleted products are listed like any selection, so
+                    //that only their images are deleted, and only if the batch commits
+                    if (selection == null && !Boolean.TRUE.equals(mApplyingBatch.get())) {
+                        rowsDeleted = database.delete(ProductEntry.TABLE_NAME, null, null);
+                        mCache.invalidateAll();
+                        mImageStore.deleteAll();
+                        break;
+                    }
+                    //Find the deleted products first so that their images can be deleted too.
+                    //The selection is matched against the current quantity, not the snapshot
+                    ArrayList<Long> ids = new ArrayList<Long>();
+                    database.beginTransactionNonExclusive();
+                    try {
+                        Cursor cursor = database.query(ProductEntry.VIEW_NAME, new String[]{ProductEntry._ID},
+                                selection, selectionArgs, null, null, null);
+                        try {
+                            while (cursor.moveToNext()) {
+                                ids.add(cursor.getLong(0));
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                        rowsDeleted = database.delete(ProductEntry.TABLE_NAME,
+                                SqliteProductRepository.currentSelection(selection), selectionArgs);
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                    }
+                    for (long id : ids) {
+                        mCache.invalidate(id);
+                        deleteImage(id);
+                    }
+                    if (ids.size() == 1) {
+                        changedUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ids.get(0));
+                    }
                     break;
                 case INVENTORY_ID:
+                    long id = ContentUris.parseId(uri);
                     selection = ProductEntry._ID + "=?";
-                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    selectionArgs = new String[]{String.valueOf(id)};
                     rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                    mCache.invalidate(id);
+                    deleteImage(id);
+                    changedUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
                     break;
                 default:
                     throw new IllegalArgumentException("Delete is not supported for " + uri);
             }
 
             if (rowsDeleted != 0) {
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(changedUri);
             }
 
             return rowsDeleted;
         }
 
+        /**
+         * Delete the image of a deleted product, or inside applyBatch remember to delete it
+         * once the batch commits
+         */
+        private void deleteImage(long id) {
+            ArrayList<Long> batchDeletedImages = mBatchDeletedImages.get();
+            if (batchDeletedImages != null) {
+                batchDeletedImages.add(id);
+            } else {
+                mImageStore.delete(id);
+            }
+        }
+
+        /**
+         * Print the latency metrics and row cache counters, for adb shell dumpsys activity provider
+         */
+        @Override
+        public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+            mMetrics.dump(writer);
+            writer.println("Row cache: " + mCache.getHitCount() + " hits, " + mCache.getMissCount()
+                    + " misses, " + mCache.getSize() + " rows");
+            writer.println("Queries of at least " + mSlowQueryLog.getThresholdMillis() + " ms, oldest first:");
+            for (String entry : mSlowQueryLog.readEntries()) {
+                writer.println(entry);
+            }
+        }
+
         @Override
         public String getType (Uri uri){
             final int match = sUriMatcher.match(uri);
             switch (match) {
                 case INVENTORY:
+                case INVENTORY_SEARCH:
                     return ProductEntry.CONTENT_LIST_TYPE;
                 case INVENTORY_ID:
+                case INVENTORY_ID_ADJUST:
                     return ProductEntry.CONTENT_ITEM_TYPE;
+                case INVENTORY_ID_IMAGE:
+                    return ProductEntry.CONTENT_IMAGE_TYPE;
+                case INVENTORY_STATS:
+                    return StatsEntry.CONTENT_ITEM_TYPE;
+                case INVENTORY_MOVEMENTS:
+                case INVENTORY_ID_MOVEMENTS:
+                    return MovementEntry.CONTENT_LIST_TYPE;
+                case INVENTORY_EXPORT:
+                    return ProductExportWriter.mimeTypeOf(ProductExportWriter.findFormat(uri));
+                case INVENTORY_METRICS:
+                    return MetricsEntry.CONTENT_LIST_TYPE;
                 default:
                     throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
             }
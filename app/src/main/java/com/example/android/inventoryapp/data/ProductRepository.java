@@ -0,0 +1,65 @@
+package com.example.android.inventoryapp.data;
+
+import java.util.List;
+
+/**
+ * Stores products independently of the content provider APIs, so the storage engine can be
+ * driven and profiled from plain JVM tests. ProductProvider goes through
+ * {@link SqliteProductRepository} only for single product inserts and for quantity adjustments
+ * inside a batch, and shares its statements for bulk inserts, updates and movements. Its
+ * queries, updates and deletes run their own SQL, so get, update and delete here do not
+ * measure the provider's. {@link InMemoryProductRepository} keeps the same contract in memory,
+ * to compare the two head to head.
+ * <p>
+ * Products are validated with the rules of {@link ProductValidator}; invalid products are
+ * rejected with an IllegalArgumentException. Implementations are safe to use from several
+ * threads at once.
+ */
+
+public interface ProductRepository {
+
+    /**
+     * Insert a product, under its own ID if that is not 0.
+     * Return the ID of the new product, or -1 if it could not be inserted
+     */
+    long insert(Product product);
+
+    /**
+     * Insert all of the products in one transaction, under their own IDs where those are not 0.
+     * If any product cannot be inserted, for example because its ID is taken, none are and a
+     * SQLiteConstraintException is thrown. Return the number inserted
+     */
+    int insertAll(List<Product> products);
+
+    /**
+     * Return the product with the given ID, with its current quantity, or null if there is none
+     */
+    Product get(long id);
+
+    /**
+     * Return at most limit products with IDs greater than afterId, in ID order
+     */
+    List<Product> page(long afterId, int limit);
+
+    /**
+     * Atomically add delta to the quantity of a product. Return the new quantity, or -1 if the
+     * product does not exist or its quantity would drop below zero
+     */
+    int adjustQuantity(long id, int delta);
+
+    /**
+     * Replace every column of the product with the given product's ID.
+     * Return false if there is no such product
+     */
+    boolean update(Product product);
+
+    /**
+     * Delete the product with the given ID. Return false if there was no such product
+     */
+    boolean delete(long id);
+
+    /**
+     * Return the number of products
+     */
+    int count();
+}
@@ -0,0 +1,277 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Log of the provider queries that took longer than a threshold, kept in a file of fixed size.
+ * Each entry holds the SQL the query ran, the shape of its bound arguments but not their
+ * values, the number of rows, the time taken and the EXPLAIN QUERY PLAN output, so that a
+ * report of a slow screen can be traced to the index it is missing.
+ * <p>
+ * Queries must run through {@link #query} or {@link #rawQuery}, which remember the last
+ * statement of the calling thread, and report to {@link #queryFinished} when done.
+ * The plan is read and the entry written on a background thread.
+ * <p>
+ * The file holds SLOTS entries of at most SLOT_SIZE bytes each, after a header giving the slot
+ * the next entry goes into; once every slot is used, each new entry replaces the oldest.
+ */
+
+public class ProductSlowQueryLog {
+
+    private static final String LOG_TAG = ProductSlowQueryLog.class.getSimpleName();
+
+    private static final int MAGIC = 0x51534c47;
+
+    private static final int SLOTS = 64;
+
+    private static final int SLOT_SIZE = 4096;
+
+    /**
+     * Header: the magic number and the slot the next entry is written to
+     */
+    private static final int HEADER_SIZE = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * SQL and arguments of the last statement run by each thread since its query started
+     */
+    private static final ThreadLocal<String> sStatementSql = new ThreadLocal<String>();
+    private static final ThreadLocal<String[]> sStatementArgs = new ThreadLocal<String[]>();
+
+    private final Context mContext;
+
+    private final String mName;
+
+    /**
+     * Log file, resolved on first use since getFilesDir() touches the disk and the log is
+     * created on the main thread at process start
+     */
+    private File mFile;
+
+    private final ProductDbHelper mDbHelper;
+
+    private final Handler mHandler;
+
+    /**
+     * Queries taking at least this long are logged; a negative threshold turns the log off
+     */
+    private volatile long mThresholdMillis;
+
+    /**
+     * Create a log kept in the file with the given name in the app's files directory
+     */
+    public ProductSlowQueryLog(Context context, String name, ProductDbHelper dbHelper, long thresholdMillis) {
+        mContext = context;
+        mName = name;
+        mDbHelper = dbHelper;
+        mThresholdMillis = thresholdMillis;
+
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    public void setThresholdMillis(long thresholdMillis) {
+        mThresholdMillis = thresholdMillis;
+    }
+
+    public long getThresholdMillis() {
+        return mThresholdMillis;
+    }
+
+    /**
+     * Run a query built the way SQLiteDatabase.query builds it, remembering its SQL
+     */
+    static Cursor query(SQLiteDatabase database, String table, String[] columns, String selection,
+                        String[] selectionArgs, String orderBy, String limit) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, null, null,
+                orderBy, limit);
+        return rawQuery(database, sql, selectionArgs);
+    }
+
+    /**
+     * Run a raw query, remembering its SQL
+     */
+    static Cursor rawQuery(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        sStatementSql.set(sql);
+        sStatementArgs.set(selectionArgs);
+        return database.rawQuery(sql, selectionArgs);
+    }
+
+    /**
+     * Forget the statement of the calling thread, before it starts a new query
+     */
+    static void queryStarted() {
+        sStatementSql.set(null);
+        sStatementArgs.set(null);
+    }
+
+    /**
+     * Log the query that just finished on the calling thread if it took at least the
+     * threshold. The source names what was queried, such as the URI pattern
+     */
+    public void queryFinished(String source, int rows, long startNanos) {
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+        long threshold = mThresholdMillis;
+        if (threshold < 0 || elapsedMillis < threshold) {
+            return;
+        }
+        final String sql = sStatementSql.get();
+        final String[] args = sStatementArgs.get();
+        final StringBuilder entry = new StringBuilder();
+        entry.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US).format(new Date()))
+                .append(' ').append(source)
+                .append(": ").append(elapsedMillis).append(" ms, ").append(rows).append(" rows\n");
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                describe(entry, sql, args);
+                append(entry.toString());
+            }
+        });
+    }
+
+    /**
+     * Return the logged entries, oldest first
+     */
+    public synchronized List<String> readEntries() {
+        List<String> entries = new ArrayList<String>();
+        if (!getFile().exists()) {
+            return entries;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(getFile(), "r");
+            try {
+                if (file.length() < HEADER_SIZE || file.readInt() != MAGIC) {
+                    return entries;
+                }
+                int next = file.readInt();
+                byte[] bytes = new byte[SLOT_SIZE];
+                for (int i = 0; i < SLOTS; i++) {
+                    long offset = HEADER_SIZE + (long) ((next + i) % SLOTS) * SLOT_SIZE;
+                    if (offset + 4 > file.length()) {
+                        continue;
+                    }
+                    file.seek(offset);
+                    int length = file.readInt();
+                    if (length <= 0 || length > SLOT_SIZE - 4) {
+                        continue;
+                    }
+                    file.readFully(bytes, 0, length);
+                    entries.add(new String(bytes, 0, length, UTF_8));
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read " + mFile, e);
+        }
+        return entries;
+    }
+
+    private synchronized File getFile() {
+        if (mFile == null) {
+            mFile = new File(mContext.getFilesDir(), mName);
+        }
+        return mFile;
+    }
+
+    /**
+     * Append the SQL, the shape of its arguments and its query plan to the entry
+     */
+    private void describe(StringBuilder entry, String sql, String[] args) {
+        if (sql == null) {
+            entry.append("no SQL, answered from memory\n");
+            return;
+        }
+        entry.append(sql).append('\n');
+        entry.append("args: [");
+        for (int i = 0; args != null && i < args.length; i++) {
+            entry.append(i == 0 ? "" : ", ").append(shapeOf(args[i]));
+        }
+        entry.append("]\nplan:\n");
+
+        try {
+            Cursor plan = mDbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            try {
+                int detail = plan.getColumnIndex("detail");
+                while (plan.moveToNext()) {
+                    entry.append("  ").append(plan.getString(detail)).append('\n');
+                }
+            } finally {
+                plan.close();
+            }
+        } catch (SQLiteException e) {
+            entry.append("  unavailable: ").append(e.getMessage()).append('\n');
+        }
+    }
+
+    /**
+     * Describe an argument by its type and length rather than its value, which may be private
+     */
+    private static String shapeOf(String arg) {
+        if (arg == null) {
+            return "null";
+        }
+        try {
+            Long.parseLong(arg);
+            return "integer";
+        } catch (NumberFormatException e) {
+            return "text(" + arg.length() + ")";
+        }
+    }
+
+    /**
+     * Write the entry over the oldest slot, truncated to fit it
+     */
+    private synchronized void append(String entry) {
+        byte[] bytes = entry.getBytes(UTF_8);
+        int length = Math.min(bytes.length, SLOT_SIZE - 4);
+        try {
+            RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+            try {
+                int next = 0;
+                if (file.length() >= HEADER_SIZE && file.readInt() == MAGIC) {
+                    next = file.readInt();
+                    if (next < 0 || next >= SLOTS) {
+                        next = 0;
+                    }
+                } else {
+                    //A new or unreadable file starts over empty
+                    file.setLength(0);
+                }
+                file.seek(HEADER_SIZE + (long) next * SLOT_SIZE);
+                file.writeInt(length);
+                file.write(bytes, 0, length);
+
+                file.seek(0);
+                file.writeInt(MAGIC);
+                file.writeInt((next + 1) % SLOTS);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write " + mFile, e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Opens the database and reads the first page of the inventory list on a background thread
+ * as soon as the provider is created, at process start. Opening runs any schema upgrade and
+ * the write-ahead logging setup; neither then happens on the thread of the first query, and
+ * the first page is read while the activity is still inflating its views.
+ * <p>
+ * The prefetched page answers the first query for it, unless the inventory changed first.
+ * Any later query for it runs normally.
+ * <p>
+ * Once the page is ready, the same thread runs at background priority whatever backfills an
+ * upgrade left to do, such as filling the search table of a large inventory.
+ */
+
+public class ProductStartup {
+
+    private static final String LOG_TAG = ProductStartup.class.getSimpleName();
+
+    private final ProductDbHelper mDbHelper;
+
+    /**
+     * Counted down once the prefetch has finished, whether or not it succeeded
+     */
+    private final CountDownLatch mReady = new CountDownLatch(1);
+
+    /**
+     * The prefetched first page, until it is taken or the inventory changes
+     */
+    private Cursor mFirstPage;
+
+    /**
+     * True once a query has taken the first page or tried to
+     */
+    private boolean mTaken;
+
+    /**
+     * True once the inventory has changed since the prefetch started
+     */
+    private boolean mStale;
+
+    public ProductStartup(ProductDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Start opening the database and prefetching on a background thread
+     */
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prefetch();
+                runBackfills();
+            }
+        }, LOG_TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void prefetch() {
+        try {
+            long start = System.nanoTime();
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            long opened = System.nanoTime();
+
+            Cursor cursor = ProductSlowQueryLog.query(database, ProductEntry.VIEW_NAME, ProductEntry.LIST_PROJECTION,
+                    null, null, ProductEntry._ID, String.valueOf(ProductEntry.LIST_PAGE_SIZE));
+            //Fill the cursor's window now, which is when the statement actually runs
+            int rows = cursor.getCount();
+            long prefetched = System.nanoTime();
+
+            synchronized (this) {
+                if (mStale) {
+                    cursor.close();
+                } else {
+                    mFirstPage = cursor;
+                }
+            }
+            Log.i(LOG_TAG, "Opened database in " + (opened - start) / 1000000 + " ms, prefetched "
+                    + rows + " products in " + (prefetched - opened) / 1000000 + " ms");
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to open and prefetch the database", e);
+        } finally {
+            mReady.countDown();
+        }
+    }
+
+    private void runBackfills() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            mDbHelper.runBackfills();
+        } catch (RuntimeException e) {
+            //Whatever was done is committed; the rest is retried at the next start
+            Log.e(LOG_TAG, "Failed to run the backfills", e);
+        }
+    }
+
+    /**
+     * Return the prefetched first page if the query asks for exactly it and nothing has changed
+     * since, waiting for the prefetch if it is still running. Return null otherwise, in which
+     * case the caller runs the query itself
+     */
+    public Cursor takeFirstPage(Uri uri, String[] projection, String selection, String sortOrder) {
+        if (!isFirstPageQuery(uri, projection, selection, sortOrder)) {
+            return null;
+        }
+        synchronized (this) {
+            if (mTaken || mStale) {
+                return null;
+            }
+            mTaken = true;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mReady.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            Cursor firstPage = mFirstPage;
+            mFirstPage = null;
+            return firstPage;
+        }
+    }
+
+    /**
+     * Note that the inventory changed, dropping the prefetched page if it has not been taken
+     */
+    public synchronized void invalidate() {
+        mStale = true;
+        if (mFirstPage != null) {
+            mFirstPage.close();
+            mFirstPage = null;
+        }
+    }
+
+    private static boolean isFirstPageQuery(Uri uri, String[] projection, String selection, String sortOrder) {
+        return String.valueOf(ProductEntry.LIST_PAGE_SIZE).equals(
+                uri.getQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT))
+                && uri.getQueryParameter(ProductContract.QUERY_PARAMETER_AFTER_ID) == null
+                && uri.getQueryParameter(ProductContract.QUERY_PARAMETER_AFTER_NAME) == null
+                && TextUtils.isEmpty(selection)
+                && (TextUtils.isEmpty(sortOrder) || ProductEntry._ID.equals(sortOrder))
+                && Arrays.equals(projection, ProductEntry.LIST_PROJECTION);
+    }
+}
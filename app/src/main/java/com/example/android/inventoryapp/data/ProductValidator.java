@@ -0,0 +1,173 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.data.ProductContract.Column;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Validates product content values against the column metadata in {@link ProductEntry#COLUMNS}.
+ * Each value is checked in a single pass over the content values, instead of one
+ * containsKey/get pair per column. Keys that are not product columns are left to SQLite.
+ */
+
+public final class ProductValidator {
+
+    private ProductValidator() {}
+
+    /**
+     * Product columns by name
+     */
+    private static final Map<String, Column> COLUMNS_BY_NAME = new HashMap<String, Column>();
+
+    /**
+     * Number of product columns that may not be null, and so must be present on insert
+     */
+    private static final int REQUIRED_COLUMN_COUNT;
+
+    static {
+        int required = 0;
+        for (Column column : ProductEntry.COLUMNS) {
+            COLUMNS_BY_NAME.put(column.name, column);
+            if (!column.nullable) {
+                required++;
+            }
+        }
+        REQUIRED_COLUMN_COUNT = required;
+    }
+
+    /**
+     * Check that the values describe a complete, valid product.
+     * Throws an IllegalArgumentException naming the first problem found
+     */
+    public static void validateInsert(ContentValues values) {
+        int requiredPresent = validate(values);
+        if (requiredPresent < REQUIRED_COLUMN_COUNT) {
+            //Only now look for the missing column, to report it
+            for (Column column : ProductEntry.COLUMNS) {
+                if (!column.nullable && !values.containsKey(column.name)) {
+                    throw new IllegalArgumentException(column.message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that a product is complete and valid, reading its fields against the column
+     * metadata directly rather than through ContentValues.
+     * Throws an IllegalArgumentException naming the first problem found
+     */
+    public static void validateProduct(Product product) {
+        for (Column column : ProductEntry.COLUMNS) {
+            switch (column.name) {
+                case ProductEntry.COLUMN_PRODUCT_NAME:
+                    checkText(column, product.getName());
+                    break;
+                case ProductEntry.COLUMN_PRODUCT_BRAND:
+                    checkText(column, product.getBrand());
+                    break;
+                case ProductEntry.COLUMN_PRODUCT_PRICE:
+                    checkInteger(column, product.getPrice());
+                    break;
+                case ProductEntry.COLUMN_PRODUCT_QUANTITY:
+                    checkInteger(column, product.getQuantity());
+                    break;
+                case ProductEntry.COLUMN_PRODUCT_IMAGE:
+                    checkText(column, product.getImage());
+                    break;
+                case ProductEntry.COLUMN_SUPPLIER_NAME:
+                    checkText(column, product.getSupplierName());
+                    break;
+                case ProductEntry.COLUMN_SUPPLIER_PHONE:
+                    checkText(column, product.getSupplierPhone());
+                    break;
+                case ProductEntry.COLUMN_SUPPLIER_EMAIL:
+                    checkText(column, product.getSupplierEmail());
+                    break;
+                default:
+                    throw new IllegalStateException("Product has no field for column " + column.name);
+            }
+        }
+    }
+
+    /**
+     * Check that every product column present in the values holds a valid value.
+     * Throws an IllegalArgumentException naming the first problem found
+     */
+    public static void validateUpdate(ContentValues values) {
+        validate(values);
+    }
+
+    /**
+     * Check every product column in the values and return how many required columns were present
+     */
+    private static int validate(ContentValues values) {
+        int requiredPresent = 0;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            Column column = COLUMNS_BY_NAME.get(entry.getKey());
+            if (column == null) {
+                continue;
+            }
+            check(column, entry.getValue());
+            if (!column.nullable) {
+                requiredPresent++;
+            }
+        }
+        return requiredPresent;
+    }
+
+    /**
+     * Check a single value against the metadata of its column
+     */
+    private static void check(Column column, Object value) {
+        if (value == null) {
+            if (!column.nullable) {
+                throw new IllegalArgumentException(column.message);
+            }
+            return;
+        }
+
+        switch (column.type) {
+            case Column.TYPE_TEXT:
+                //Bytes are never stored in text columns; images go through the image URI
+                if (value instanceof byte[]) {
+                    if (ProductEntry.COLUMN_PRODUCT_IMAGE.equals(column.name)) {
+                        throw new IllegalArgumentException("Product images must be written through "
+                                + "ProductEntry.buildImageUri, not stored in the table");
+                    }
+                    throw new IllegalArgumentException(column.message);
+                }
+                break;
+            case Column.TYPE_INTEGER:
+                long number;
+                if (value instanceof Number) {
+                    number = ((Number) value).longValue();
+                } else if (value instanceof String) {
+                    try {
+                        number = Long.parseLong((String) value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException(column.message);
+                    }
+                } else {
+                    throw new IllegalArgumentException(column.message);
+                }
+                checkInteger(column, number);
+                break;
+        }
+    }
+
+    private static void checkText(Column column, String value) {
+        if (value == null && !column.nullable) {
+            throw new IllegalArgumentException(column.message);
+        }
+    }
+
+    private static void checkInteger(Column column, long value) {
+        if (value < column.min || value > column.max) {
+            throw new IllegalArgumentException(column.message);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single writer for quantity adjustments and product edits, with group commit.
+ * Writes are accepted from any thread and applied in order on one writer thread. Everything
+ * queued while the writer waits for a batch is committed in a single transaction, so a burst
+ * of sales costs one commit rather than one per sale.
+ * <p>
+ * A batch is committed as soon as it holds maxBatchSize writes, and at the latest maxDelayMillis
+ * after its first write was queued. Each write completes, through its Future or its Callback,
+ * only once its batch has been committed. Each write runs inside a savepoint of the batch, so a
+ * write that fails, such as one breaking a constraint, is rolled back and fails on its own;
+ * the rest of its batch is still committed.
+ * <p>
+ * The caller is responsible for cache invalidation and change notifications, as with
+ * {@link SqliteProductRepository}. Do not wait for a write while holding a transaction on the
+ * same database, since the writer needs the database lock to commit it.
+ */
+
+public class ProductWriteQueue {
+
+    /**
+     * Receives the result of a write on the writer thread, after its batch has been committed.
+     * Implementations should return quickly, since the next batch waits for them
+     */
+    public interface Callback<V> {
+
+        void onComplete(V result);
+
+        void onFailure(RuntimeException error);
+    }
+
+    private static final String LOG_TAG = ProductWriteQueue.class.getSimpleName();
+
+    private static final String SQL_SAVEPOINT = "SAVEPOINT write";
+
+    //The leading semicolon keeps SQLiteDatabase before API 28 from taking the statement for a
+    //ROLLBACK and ending the whole batch transaction
+    private static final String SQL_ROLLBACK_TO_SAVEPOINT = ";ROLLBACK TO write";
+
+    private static final String SQL_RELEASE_SAVEPOINT = "RELEASE write";
+
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private final ProductDbHelper mDbHelper;
+
+    private final long mMaxDelayMillis;
+
+    private final int mMaxBatchSize;
+
+    private final LinkedBlockingQueue<Write<?>> mQueue = new LinkedBlockingQueue<Write<?>>();
+
+    private final Thread mWriter;
+
+    /**
+     * Queued by close() to stop the writer once every write queued before it is committed
+     */
+    private final Write<Void> mClose = new Write<Void>(null) {
+        @Override
+        Void apply(SQLiteDatabase database, Statements statements) {
+            return null;
+        }
+    };
+
+    private volatile boolean mClosed;
+
+    /**
+     * Number of batch transactions committed; written by the writer thread only
+     */
+    private volatile int mBatchesCommitted;
+
+    public ProductWriteQueue(ProductDbHelper dbHelper, long maxDelayMillis, int maxBatchSize) {
+        if (maxDelayMillis < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Write queue requires a delay of 0 or more and a batch size of 1 or more");
+        }
+        mDbHelper = dbHelper;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxBatchSize = maxBatchSize;
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                //Provider calls made on the main thread wait for the writer, so it runs at their priority
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                try {
+                    runWriter();
+                } finally {
+                    failQueuedWrites();
+                }
+            }
+        }, LOG_TAG);
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Queue an atomic addition of delta to the quantity of a product. The result is the new
+     * quantity, or -1 if the product does not exist or its quantity would drop below zero
+     */
+    public Future<Integer> adjustQuantity(long id, int delta) {
+        return enqueue(new Adjustment(id, delta, null));
+    }
+
+    /**
+     * Queue a quantity adjustment whose result is passed to the callback
+     */
+    public void adjustQuantity(long id, int delta, Callback<Integer> callback) {
+        enqueue(new Adjustment(id, delta, callback));
+    }
+
+    /**
+     * Queue an edit of some of the columns of one product. The values are validated right away,
+     * throwing an IllegalArgumentException if any is invalid. A quantity is appended to the
+     * stock movement ledger as an edit. The result is the number of products updated, 0 or 1
+     */
+    public Future<Integer> update(long id, ContentValues values) {
+        ProductValidator.validateUpdate(values);
+        return enqueue(new Edit(id, new ContentValues(values), null));
+    }
+
+    /**
+     * Queue an edit of one product whose result is passed to the callback
+     */
+    public void update(long id, ContentValues values, Callback<Integer> callback) {
+        ProductValidator.validateUpdate(values);
+        enqueue(new Edit(id, new ContentValues(values), callback));
+    }
+
+    /**
+     * Stop accepting writes, and stop the writer thread once the writes already queued are
+     * committed. Waits for the writer thread to finish
+     */
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mQueue.add(mClose);
+        }
+        boolean interrupted = false;
+        while (mWriter.isAlive()) {
+            try {
+                mWriter.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for a queued write and return its result, rethrowing the exception it failed with.
+     * The wait is not interruptible, because the write will be committed either way; the
+     * interrupt is kept for the caller
+     */
+    public static <V> V await(Future<V> write) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return write.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw (RuntimeException) e.getCause();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Return the number of batch transactions committed so far
+     */
+    int getBatchesCommitted() {
+        return mBatchesCommitted;
+    }
+
+    private <V> Write<V> enqueue(Write<V> write) {
+        synchronized (this) {
+            if (mClosed) {
+                throw new IllegalStateException("Write queue is closed");
+            }
+            mQueue.add(write);
+        }
+        return write;
+    }
+
+    /**
+     * Take batches off the queue and commit them, until the queue is closed
+     */
+    private void runWriter() {
+        List<Write<?>> batch = new ArrayList<Write<?>>(mMaxBatchSize);
+        boolean closing = false;
+        while (!closing) {
+            try {
+                batch.add(mQueue.take());
+                long deadline = batch.get(0).mQueuedAt + mMaxDelayMillis;
+                while (batch.size() < mMaxBatchSize && batch.get(batch.size() - 1) != mClose) {
+                    long remaining = deadline - SystemClock.uptimeMillis();
+                    Write<?> next = remaining > 0
+                            ? mQueue.poll(remaining, TimeUnit.MILLISECONDS) : mQueue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                //Nothing interrupts the writer but the process going away; commit what was taken,
+                //then the queue closes and fails the rest
+                closing = true;
+            }
+            if (!batch.isEmpty() && batch.get(batch.size() - 1) == mClose) {
+                batch.remove(batch.size() - 1);
+                closing = true;
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Close the queue once the writer has stopped, however it stopped, and fail the writes
+     * still queued, which nothing would ever commit
+     */
+    private void failQueuedWrites() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        IllegalStateException closed = new IllegalStateException("Write queue is closed");
+        Write<?> write;
+        while ((write = mQueue.poll()) != null) {
+            write.complete(closed);
+        }
+    }
+
+    /**
+     * Apply every write of the batch in one transaction, then complete them all.
+     * If the transaction cannot be committed, every write of the batch fails with its error
+     */
+    private void commit(List<Write<?>> batch) {
+        RuntimeException failure = null;
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.beginTransactionNonExclusive();
+            Statements statements = new Statements(database);
+            try {
+                for (Write<?> write : batch) {
+                    write.applyAndKeep(database, statements);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                statements.close();
+                database.endTransaction();
+            }
+            mBatchesCommitted++;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        for (Write<?> write : batch) {
+            write.complete(failure);
+        }
+    }
+
+    /**
+     * Statements compiled once per batch and shared by its writes
+     */
+    private static class Statements {
+
+        final SQLiteStatement mAppendMovement;
+
+        final SQLiteStatement mQuantityById;
+
+        final SQLiteStatement mSavepoint;
+
+        final SQLiteStatement mRollbackToSavepoint;
+
+        final SQLiteStatement mReleaseSavepoint;
+
+        Statements(SQLiteDatabase database) {
+            mAppendMovement = database.compileStatement(SqliteProductRepository.SQL_APPEND_MOVEMENT);
+            mQuantityById = database.compileStatement(SqliteProductRepository.SQL_QUANTITY_BY_ID);
+            mSavepoint = database.compileStatement(SQL_SAVEPOINT);
+            mRollbackToSavepoint = database.compileStatement(SQL_ROLLBACK_TO_SAVEPOINT);
+            mReleaseSavepoint = database.compileStatement(SQL_RELEASE_SAVEPOINT);
+        }
+
+        void close() {
+            mAppendMovement.close();
+            mQuantityById.close();
+            mSavepoint.close();
+            mRollbackToSavepoint.close();
+            mReleaseSavepoint.close();
+        }
+    }
+
+    /**
+     * A queued write. It is applied inside the batch transaction but completed only after the
+     * commit; a write cancelled before its batch is applied is skipped
+     */
+    private abstract static class Write<V> extends FutureTask<V> {
+
+        final long mQueuedAt = SystemClock.uptimeMillis();
+
+        private final Callback<V> mCallback;
+
+        private V mResult;
+
+        private RuntimeException mError;
+
+        Write(Callback<V> callback) {
+            super(NO_OP, null);
+            mCallback = callback;
+        }
+
+        /**
+         * Apply the write to the database inside the batch transaction and return its result
+         */
+        abstract V apply(SQLiteDatabase database, Statements statements);
+
+        /**
+         * Apply the write inside its own savepoint and keep its result, or roll back whatever
+         * it changed before failing and keep its error
+         */
+        final void applyAndKeep(SQLiteDatabase database, Statements statements) {
+            if (isDone()) {
+                return;
+            }
+            statements.mSavepoint.execute();
+            try {
+                mResult = apply(database, statements);
+            } catch (RuntimeException e) {
+                mError = e;
+                statements.mRollbackToSavepoint.execute();
+            }
+            statements.mReleaseSavepoint.execute();
+        }
+
+        /**
+         * Complete the write once its batch is committed, or failed with the given error
+         */
+        final void complete(RuntimeException batchFailure) {
+            if (batchFailure != null) {
+                setException(batchFailure);
+            } else if (mError != null) {
+                setException(mError);
+            } else {
+                set(mResult);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (mCallback == null || isCancelled()) {
+                return;
+            }
+            try {
+                mCallback.onComplete(get());
+            } catch (ExecutionException e) {
+                mCallback.onFailure((RuntimeException) e.getCause());
+            } catch (InterruptedException e) {
+                //Cannot happen, the write is done
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Adjustment extends Write<Integer> {
+
+        private final long mId;
+
+        private final int mDelta;
+
+        Adjustment(long id, int delta, Callback<Integer> callback) {
+            super(callback);
+            mId = id;
+            mDelta = delta;
+        }
+
+        @Override
+        Integer apply(SQLiteDatabase database, Statements statements) {
+            if (!SqliteProductRepository.appendMovement(statements.mAppendMovement, mId, mDelta, null,
+                    System.currentTimeMillis())) {
+                return -1;
+            }
+            statements.mQuantityById.bindLong(1, mId);
+            try {
+                return (int) statements.mQuantityById.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return -1;
+            }
+        }
+    }
+
+    private static class Edit extends Write<Integer> {
+
+        private final long mId;
+
+        private final ContentValues mValues;
+
+        Edit(long id, ContentValues values, Callback<Integer> callback) {
+            super(callback);
+            mId = id;
+            mValues = values;
+        }
+
+        @Override
+        Integer apply(SQLiteDatabase database, Statements statements) {
+            return SqliteProductRepository.updateProducts(database, mValues,
+                    ProductEntry._ID + "=?", new String[]{String.valueOf(mId)});
+        }
+    }
+}
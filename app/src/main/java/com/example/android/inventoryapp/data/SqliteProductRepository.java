@@ -0,0 +1,367 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.ProductContract.Column;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ProductRepository} over the database of a ProductDbHelper. Products are read from
+ * {@link ProductEntry#VIEW_NAME}, and quantity changes are appended to the stock movement
+ * ledger rather than written over the quantity column.
+ * It does not notify content observers or touch product images; ProductProvider does that
+ * around its calls.
+ */
+
+public class SqliteProductRepository implements ProductRepository {
+
+    /**
+     * SQL for the compiled insert statement, with one placeholder per entry of ProductEntry.COLUMNS
+     */
+    static final String SQL_INSERT_PRODUCT = buildInsertSql();
+
+    /**
+     * SQL that appends a movement adding a delta to the quantity of one product, unless the
+     * product does not exist or its current quantity would become negative.
+     * Bind arguments: delta, reason, time, product ID, delta
+     */
+    static final String SQL_APPEND_MOVEMENT = "INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+            + MovementEntry.COLUMN_PRODUCT_ID + ", "
+            + MovementEntry.COLUMN_DELTA + ", "
+            + MovementEntry.COLUMN_REASON + ", "
+            + MovementEntry.COLUMN_TIME + ")"
+            + " SELECT " + ProductEntry._ID + ", ?, ?, ? FROM " + ProductEntry.VIEW_NAME
+            + " WHERE " + ProductEntry._ID + " = ?"
+            + " AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ? >= 0";
+
+    /**
+     * SQL that appends an edit movement setting the current quantity of every product in a
+     * selection to a new value. Bind arguments: quantity, time, quantity, then the selection's
+     */
+    private static final String SQL_APPEND_EDITS = "INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+            + MovementEntry.COLUMN_PRODUCT_ID + ", "
+            + MovementEntry.COLUMN_DELTA + ", "
+            + MovementEntry.COLUMN_REASON + ", "
+            + MovementEntry.COLUMN_TIME + ")"
+            + " SELECT " + ProductEntry._ID + ", ? - " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + ", '" + MovementEntry.REASON_EDIT + "', ? FROM " + ProductEntry.VIEW_NAME
+            + " WHERE " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != ?";
+
+    /**
+     * SQL reading the current quantity of one product. Bind arguments: product ID
+     */
+    static final String SQL_QUANTITY_BY_ID = "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " FROM " + ProductEntry.VIEW_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    private static final String ID_SELECTION = ProductEntry._ID + "=?";
+
+    /**
+     * Temporary table holding the products selected by the update running on the connection
+     */
+    private static final String SELECTED_TABLE_NAME = "temp.selected_products";
+
+    private static final String SQL_CREATE_SELECTED_TABLE = "CREATE TEMP TABLE IF NOT EXISTS selected_products ("
+            + ProductEntry._ID + " INTEGER PRIMARY KEY)";
+
+    /**
+     * Selection of the products in SELECTED_TABLE_NAME
+     */
+    private static final String SELECTED_SELECTION = ProductEntry._ID + " IN (SELECT " + ProductEntry._ID
+            + " FROM " + SELECTED_TABLE_NAME + ")";
+
+    private final ProductDbHelper mDbHelper;
+
+    public SqliteProductRepository(ProductDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public long insert(Product product) {
+        ContentValues values = ProductCodec.toContentValues(product);
+        ProductValidator.validateInsert(values);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (product.getId() != 0) {
+            values.put(ProductEntry._ID, product.getId());
+            return database.insert(ProductEntry.TABLE_NAME, null, values);
+        }
+        SQLiteStatement insert = database.compileStatement(SQL_INSERT_PRODUCT);
+        try {
+            bindProduct(insert, values);
+            return insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * A product SQLite refuses, such as one whose ID is taken, throws and rolls back the whole
+     * transaction, so either every product is inserted or none is
+     */
+    @Override
+    public int insertAll(List<Product> products) {
+        ContentValues[] rows = new ContentValues[products.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = ProductCodec.toContentValues(products.get(i));
+            ProductValidator.validateInsert(rows[i]);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransactionNonExclusive();
+        SQLiteStatement insert = database.compileStatement(SQL_INSERT_PRODUCT);
+        try {
+            for (int i = 0; i < rows.length; i++) {
+                if (products.get(i).getId() != 0) {
+                    //The compiled statement has no _ID; insertOrThrow fails the same way it does
+                    rows[i].put(ProductEntry._ID, products.get(i).getId());
+                    database.insertOrThrow(ProductEntry.TABLE_NAME, null, rows[i]);
+                } else {
+                    bindProduct(insert, rows[i]);
+                    insert.executeInsert();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            database.endTransaction();
+        }
+        return rows.length;
+    }
+
+    @Override
+    public Product get(long id) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ProductEntry.VIEW_NAME, ProductCache.COLUMNS,
+                ID_SELECTION, new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? new ProductCodec(cursor).read(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public List<Product> page(long afterId, int limit) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ProductEntry.VIEW_NAME, ProductCache.COLUMNS,
+                ProductEntry._ID + " > ?", new String[]{String.valueOf(afterId)},
+                null, null, ProductEntry._ID, String.valueOf(limit));
+        try {
+            List<Product> products = new ArrayList<Product>(cursor.getCount());
+            ProductCodec codec = new ProductCodec(cursor);
+            while (cursor.moveToNext()) {
+                products.add(codec.read(cursor));
+            }
+            return products;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Append the movement and read the new quantity back inside one transaction, so the
+     * result is that of this adjustment even while others run concurrently
+     */
+    @Override
+    public int adjustQuantity(long id, int delta) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int quantity = -1;
+        database.beginTransactionNonExclusive();
+        SQLiteStatement append = database.compileStatement(SQL_APPEND_MOVEMENT);
+        try {
+            if (appendMovement(append, id, delta, null, System.currentTimeMillis())) {
+                quantity = (int) DatabaseUtils.longForQuery(database, SQL_QUANTITY_BY_ID,
+                        new String[]{String.valueOf(id)});
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            append.close();
+            database.endTransaction();
+        }
+        return quantity;
+    }
+
+    /**
+     * Update the columns of the product in the table, and append an edit movement if its
+     * current quantity differs from the product's
+     */
+    @Override
+    public boolean update(Product product) {
+        ContentValues values = ProductCodec.toContentValues(product);
+        ProductValidator.validateInsert(values);
+        values.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+
+        String[] idArgs = {String.valueOf(product.getId())};
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        boolean updated;
+        database.beginTransactionNonExclusive();
+        try {
+            updated = database.update(ProductEntry.TABLE_NAME, values, ID_SELECTION, idArgs) != 0;
+            if (updated) {
+                appendEdits(database, product.getQuantity(), ID_SELECTION, idArgs);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean delete(long id) {
+        return mDbHelper.getWritableDatabase().delete(ProductEntry.TABLE_NAME, ID_SELECTION,
+                new String[]{String.valueOf(id)}) != 0;
+    }
+
+    @Override
+    public int count() {
+        return (int) DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), ProductEntry.TABLE_NAME);
+    }
+
+    /**
+     * Build the INSERT statement for every column of ProductEntry.COLUMNS
+     */
+    private static String buildInsertSql() {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder placeholders = new StringBuilder();
+        for (Column column : ProductEntry.COLUMNS) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+                placeholders.append(", ");
+            }
+            columns.append(column.name);
+            placeholders.append('?');
+        }
+        return "INSERT INTO " + ProductEntry.TABLE_NAME + " (" + columns + ") VALUES (" + placeholders + ")";
+    }
+
+    /**
+     * Bind the product columns of the given content values to the compiled insert statement,
+     * in the order of {@link ProductEntry#COLUMNS}. The values must already have been validated.
+     */
+    static void bindProduct(SQLiteStatement insert, ContentValues values) {
+        Column[] columns = ProductEntry.COLUMNS;
+        for (int i = 0; i < columns.length; i++) {
+            Column column = columns[i];
+            Object value = values.get(column.name);
+            if (value == null) {
+                insert.bindNull(i + 1);
+            } else if (column.type == Column.TYPE_INTEGER) {
+                insert.bindLong(i + 1, value instanceof Number
+                        ? ((Number) value).longValue() : Long.parseLong(value.toString()));
+            } else {
+                insert.bindString(i + 1, value.toString());
+            }
+        }
+    }
+
+    /**
+     * Bind and run the compiled SQL_APPEND_MOVEMENT statement. A null reason is taken from the
+     * sign of the delta. Return true if the movement was appended
+     */
+    static boolean appendMovement(SQLiteStatement append, long productId, int delta, String reason, long time) {
+        if (reason == null) {
+            reason = delta < 0 ? MovementEntry.REASON_SALE : MovementEntry.REASON_RECEIVE;
+        }
+        append.bindLong(1, delta);
+        append.bindString(2, reason);
+        append.bindLong(3, time);
+        append.bindLong(4, productId);
+        append.bindLong(5, delta);
+        return append.executeInsert() != -1;
+    }
+
+    /**
+     * Return a selection of the products whose current values, as read from
+     * {@link ProductEntry#VIEW_NAME}, match the given selection. The quantity column of the
+     * table is only a snapshot, so a client selection must never be run against the table itself
+     */
+    static String currentSelection(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return null;
+        }
+        return ProductEntry._ID + " IN (SELECT " + ProductEntry._ID + " FROM " + ProductEntry.VIEW_NAME
+                + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Update the given columns of the selected products. A quantity is not written over the
+     * snapshot but appended as the edit movements that bring each product to it.
+     * The selection is matched once against the current values, before anything changes.
+     * Must be called inside a transaction. Return the number of products matched, like an UPDATE
+     */
+    static int updateProducts(SQLiteDatabase database, ContentValues values, String selection, String[] selectionArgs) {
+        Long quantity = values.getAsLong(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        if (quantity == null) {
+            return database.update(ProductEntry.TABLE_NAME, values, currentSelection(selection), selectionArgs);
+        }
+        values = new ContentValues(values);
+        values.remove(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+
+        //The edits change the quantity and the update the other columns, either of which the
+        //selection may test, so both work on the products it matched beforehand
+        int rowsMatched = selectProducts(database, selection, selectionArgs);
+        if (rowsMatched == 0) {
+            return 0;
+        }
+        appendEdits(database, quantity, SELECTED_SELECTION, null);
+        if (values.size() != 0) {
+            database.update(ProductEntry.TABLE_NAME, values, SELECTED_SELECTION, null);
+        }
+        return rowsMatched;
+    }
+
+    /**
+     * Replace the contents of SELECTED_TABLE_NAME with the products matching the selection.
+     * Return the number of products selected
+     */
+    private static int selectProducts(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        database.execSQL(SQL_CREATE_SELECTED_TABLE);
+        database.execSQL("DELETE FROM " + SELECTED_TABLE_NAME);
+        String sql = "INSERT INTO " + SELECTED_TABLE_NAME + " SELECT " + ProductEntry._ID
+                + " FROM " + ProductEntry.VIEW_NAME;
+        if (!TextUtils.isEmpty(selection)) {
+            sql += " WHERE " + selection;
+        }
+        SQLiteStatement select = database.compileStatement(sql);
+        try {
+            if (selectionArgs != null) {
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    select.bindString(i + 1, selectionArgs[i]);
+                }
+            }
+            return select.executeUpdateDelete();
+        } finally {
+            select.close();
+        }
+    }
+
+    /**
+     * Append the edit movements setting the quantity of the selected products.
+     * Return the number of products whose quantity changed
+     */
+    static int appendEdits(SQLiteDatabase database, long quantity, String selection, String[] selectionArgs) {
+        String sql = TextUtils.isEmpty(selection) ? SQL_APPEND_EDITS : SQL_APPEND_EDITS + " AND (" + selection + ")";
+        SQLiteStatement append = database.compileStatement(sql);
+        try {
+            append.bindLong(1, quantity);
+            append.bindLong(2, System.currentTimeMillis());
+            append.bindLong(3, quantity);
+            if (selectionArgs != null) {
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    append.bindString(i + 4, selectionArgs[i]);
+                }
+            }
+            return append.executeUpdateDelete();
+        } finally {
+            append.close();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.android.inventoryapp.data;
+
+import com.example.android.inventoryapp.BuildConfig;
+
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Runs the repository contract against {@link InMemoryProductRepository}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class InMemoryProductRepositoryTest extends ProductRepositoryContractTest {
+
+    @Override
+    protected ProductRepository createRepository() {
+        return new InMemoryProductRepository();
+    }
+}
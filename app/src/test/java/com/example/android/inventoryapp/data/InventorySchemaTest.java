@@ -0,0 +1,94 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.benchmark.InventorySchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the schema and statements the JDBC benchmarks run on are those of the app, so
+ * that a change to ProductDbHelper or SqliteProductRepository that is not copied into
+ * {@link InventorySchema} fails the build instead of leaving the benchmarks measuring old SQL
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class InventorySchemaTest {
+
+    private ProductDbHelper mDbHelper;
+
+    private SQLiteDatabase mBenchmarkDatabase;
+
+    @Before
+    public void createDatabases() {
+        mDbHelper = new ProductDbHelper(RuntimeEnvironment.application, null);
+        mBenchmarkDatabase = SQLiteDatabase.create(null);
+        for (String sql : InventorySchema.CREATE) {
+            mBenchmarkDatabase.execSQL(sql);
+        }
+    }
+
+    @After
+    public void closeDatabases() {
+        mBenchmarkDatabase.close();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void create_matchesDbHelperSchema() throws Exception {
+        assertEquals(readSchema(mDbHelper.getWritableDatabase()), readSchema(mBenchmarkDatabase));
+    }
+
+    @Test
+    public void statements_matchRepository() throws Exception {
+        assertEquals(SqliteProductRepository.SQL_INSERT_PRODUCT, InventorySchema.INSERT_PRODUCT);
+        assertEquals(SqliteProductRepository.SQL_APPEND_MOVEMENT, InventorySchema.APPEND_MOVEMENT);
+    }
+
+    /**
+     * Return the type and normalized SQL of every table, index, trigger and view, by name,
+     * leaving out those SQLite and Android create by themselves
+     */
+    private static Map<String, String> readSchema(SQLiteDatabase database) {
+        Map<String, String> schema = new TreeMap<String, String>();
+        Cursor cursor = database.rawQuery("SELECT name, type, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.put(cursor.getString(0), cursor.getString(1) + ": " + normalize(cursor.getString(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    /**
+     * Lower case the SQL and drop the whitespace and trailing semicolon that differ between
+     * the two spellings of the same statement
+     */
+    private static String normalize(String sql) {
+        if (sql == null) {
+            return null;
+        }
+        String normalized = sql.toLowerCase(Locale.US)
+                .replaceAll("\\s+", " ")
+                .replaceAll(" ?([(),;=]) ?", "$1")
+                .trim();
+        return normalized.endsWith(";") ? normalized.substring(0, normalized.length() - 1) : normalized;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the row bookkeeping of {@link InventorySnapshot.Columns} and that a scan split
+ * across threads reports the same as one run on the calling thread
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class InventorySnapshotTest {
+
+    @Test
+    public void put_insertsIdIntoTheMiddleInOrder() throws Exception {
+        InventorySnapshot.Columns columns = new InventorySnapshot.Columns(2);
+        columns.append(10, "Brand", 100, 1, "Supplier");
+        columns.append(30, "Brand", 300, 3, "Supplier");
+
+        columns.put(20, "Other", 200, 2, "Supplier");
+        columns.put(5, "Other", 50, 5, "Supplier");
+        columns.put(30, "Brand", 350, 4, "Supplier");
+
+        assertEquals(4, columns.mSize);
+        assertArrayEquals(new long[]{5, 10, 20, 30}, copyOf(columns.mIds, columns.mSize));
+        assertArrayEquals(new int[]{50, 100, 200, 350}, copyOf(columns.mPrices, columns.mSize));
+        assertArrayEquals(new int[]{5, 1, 2, 4}, copyOf(columns.mQuantities, columns.mSize));
+    }
+
+    @Test
+    public void remove_compactsOnceAQuarterOfTheRowsAreDead() throws Exception {
+        InventorySnapshot.Columns columns = new InventorySnapshot.Columns(8);
+        for (long id = 1; id <= 8; id++) {
+            columns.append(id, "Brand", (int) id, (int) id, "Supplier");
+        }
+
+        columns.remove(3);
+        columns.remove(6);
+        //Removing a product twice or one that is not there changes nothing
+        columns.remove(6);
+        columns.remove(42);
+        assertEquals(8, columns.mSize);
+        assertEquals(2, columns.mDead);
+
+        columns.remove(7);
+        assertEquals(5, columns.mSize);
+        assertEquals(0, columns.mDead);
+        assertArrayEquals(new long[]{1, 2, 4, 5, 8}, copyOf(columns.mIds, columns.mSize));
+        assertArrayEquals(new int[]{1, 2, 4, 5, 8}, copyOf(columns.mQuantities, columns.mSize));
+
+        //A product put back after compaction lands in its place again
+        columns.put(6, "Brand", 6, 6, "Supplier");
+        assertArrayEquals(new long[]{1, 2, 4, 5, 6, 8}, copyOf(columns.mIds, columns.mSize));
+    }
+
+    @Test
+    public void scans_splitAcrossThreadsMatchSerialScan() throws Exception {
+        Robolectric.setupContentProvider(ProductProvider.class);
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+        int count = 203;
+        ContentValues[] rows = new ContentValues[count];
+        Map<String, Long> stockValues = new LinkedHashMap<String, Long>();
+        int belowReorderPoint = 0;
+        for (int i = 0; i < count; i++) {
+            ContentValues row = ProductCodec.toContentValues(ProductRepositoryContractTest.product(
+                    "Product " + i, 100 + i, i % 13));
+            row.put(ProductEntry.COLUMN_PRODUCT_BRAND, "Brand " + i % 5);
+            row.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier " + i % 3);
+            rows[i] = row;
+            String brand = "Brand " + i % 5;
+            long value = (long) (100 + i) * (i % 13);
+            stockValues.put(brand, stockValues.containsKey(brand) ? stockValues.get(brand) + value : value);
+            if (i % 13 < 4) {
+                belowReorderPoint++;
+            }
+        }
+        resolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+
+        InventorySnapshot serial = new InventorySnapshot(resolver, Integer.MAX_VALUE, 1);
+        serial.load();
+        //Seven uneven parts of at least one row each
+        InventorySnapshot parallel = new InventorySnapshot(resolver, 1, 7);
+        parallel.load();
+
+        assertEquals(count, serial.size());
+        assertEquals(count, parallel.size());
+        assertEquals(stockValues, serial.stockValueByBrand());
+        assertEquals(serial.stockValueByBrand(), parallel.stockValueByBrand());
+        assertEquals(belowReorderPoint, serial.idsBelowReorderPoint(4).length);
+        assertArrayEquals(serial.idsBelowReorderPoint(4), parallel.idsBelowReorderPoint(4));
+        assertEquals(serial.productCountBySupplier(), parallel.productCountBySupplier());
+        assertEquals(Integer.valueOf(68), parallel.productCountBySupplier().get("Supplier 0"));
+    }
+
+    private static long[] copyOf(long[] values, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(values, 0, copy, 0, length);
+        return copy;
+    }
+
+    private static int[] copyOf(int[] values, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(values, 0, copy, 0, length);
+        return copy;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exports products whose text needs quoting or escaping, imports the export into
+ * ProductProvider with {@link ProductImporter} and checks that every product comes back
+ * unchanged
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class ProductExportWriterTest {
+
+    private static final String[] NAMES = {
+            "Plain",
+            "Comma, inside",
+            "Quote \" inside",
+            "\"Quoted\"",
+            "Line\nbreak",
+            "Windows\r\nbreak",
+            "Control \u0001\u001f and\ttab",
+            "Backslash \\ and slash /",
+            "  Spaced  ",
+            "Accent \u00e9 and check \u2713",
+    };
+
+    private ProductDbHelper mDbHelper;
+
+    private File mExport;
+
+    @Before
+    public void insertProducts() {
+        mDbHelper = new ProductDbHelper(RuntimeEnvironment.application, null);
+        SqliteProductRepository repository = new SqliteProductRepository(mDbHelper);
+        for (int i = 0; i < NAMES.length; i++) {
+            repository.insert(ProductRepositoryContractTest.product(NAMES[i], 100 + i, i));
+        }
+        mExport = new File(RuntimeEnvironment.application.getCacheDir(), "export");
+    }
+
+    @After
+    public void closeDatabase() {
+        mDbHelper.close();
+        mExport.delete();
+    }
+
+    @Test
+    public void csv_importsBackUnchanged() throws Exception {
+        export(ProductEntry.EXPORT_FORMAT_CSV);
+
+        InputStream in = new FileInputStream(mExport);
+        try {
+            assertImportsBack(ProductImporter.FORMAT_CSV, in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void json_importsBackUnchanged() throws Exception {
+        export(ProductEntry.EXPORT_FORMAT_JSON);
+
+        //The importer reads a JSON array, the export writes one object per line
+        byte[] bytes = new byte[(int) mExport.length()];
+        InputStream in = new FileInputStream(mExport);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                read += in.read(bytes, read, bytes.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        String array = "[" + new String(bytes, "UTF-8").trim().replace('\n', ',') + "]";
+        assertImportsBack(ProductImporter.FORMAT_JSON, new ByteArrayInputStream(array.getBytes("UTF-8")));
+    }
+
+    private void export(String format) throws Exception {
+        ParcelFileDescriptor output = ParcelFileDescriptor.open(mExport, ParcelFileDescriptor.MODE_WRITE_ONLY
+                | ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE);
+        Uri uri = ProductEntry.buildExportUri(format);
+        new ProductExportWriter(mDbHelper).write(output, uri, format);
+    }
+
+    private void assertImportsBack(int format, InputStream in) throws Exception {
+        Robolectric.setupContentProvider(ProductProvider.class);
+        ProductImporter.Result result = new ProductImporter(RuntimeEnvironment.application.getContentResolver())
+                .importFrom(in, format, null);
+
+        assertEquals(result.rejections.toString(), NAMES.length, result.rowsImported);
+        assertEquals(0, result.rowsRejected);
+        Cursor cursor = RuntimeEnvironment.application.getContentResolver().query(ProductEntry.CONTENT_URI,
+                new String[]{ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_PRICE,
+                        ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, ProductEntry._ID);
+        List<String> imported = new ArrayList<String>();
+        try {
+            while (cursor.moveToNext()) {
+                imported.add(cursor.getString(0) + "|" + cursor.getInt(1) + "|" + cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < NAMES.length; i++) {
+            expected.add(NAMES[i] + "|" + (100 + i) + "|" + i);
+        }
+        assertEquals(expected, imported);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds small CSV and JSON files through {@link ProductImporter} into ProductProvider and
+ * checks which rows are imported, with which values, and which are rejected
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class ProductImporterTest {
+
+    private static final String CSV_HEADER = "name,brand,price,quantity,supplier_name,supplier_phone,supplier_email";
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUpProvider() {
+        Robolectric.setupContentProvider(ProductProvider.class);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void csv_readsQuotedFieldsAndLineBreaks() throws Exception {
+        ProductImporter.Result result = importCsv("\uFEFF" + CSV_HEADER + "\r\n"
+                + "Soap,Brand,250,3,Supplier,555-555-5555,orders@example.com\r\n"
+                + "\r\n"
+                + "\"Towel, large\",\"The \"\"Best\"\" Brand\",1000,1,\"Line one\nLine two\",555-555-5555,"
+                + "orders@example.com\n"
+                + "\n");
+
+        assertEquals(2, result.rowsRead);
+        assertEquals(2, result.rowsImported);
+        assertEquals(0, result.rowsRejected);
+        List<String> rows = readProducts();
+        assertEquals("Soap|Brand|250|3|Supplier", rows.get(0));
+        assertEquals("Towel, large|The \"Best\" Brand|1000|1|Line one\nLine two", rows.get(1));
+    }
+
+    @Test
+    public void csv_ignoresUnknownColumnsAndImages() throws Exception {
+        ProductImporter.Result result = importCsv("_id,image,notes," + CSV_HEADER + "\n"
+                + "7,/sdcard/soap.png,Keep dry,Soap,Brand,250,3,Supplier,555-555-5555,orders@example.com\n");
+
+        assertEquals(1, result.rowsImported);
+        assertEquals("Soap|Brand|250|3|Supplier", readProducts().get(0));
+    }
+
+    @Test
+    public void csv_rejectsInvalidRowsAndImportsTheOthers() throws Exception {
+        ProductImporter.Result result = importCsv(CSV_HEADER + "\n"
+                + "Soap,Brand,cheap,3,Supplier,555-555-5555,orders@example.com\n"
+                + "Towel,Brand,1000,1,Supplier,555-555-5555,orders@example.com\n");
+
+        assertEquals(2, result.rowsRead);
+        assertEquals(1, result.rowsImported);
+        assertEquals(1, result.rowsRejected);
+        assertTrue(result.rejections.get(0), result.rejections.get(0).startsWith("Row 1: "));
+        assertEquals(1, readProducts().size());
+    }
+
+    @Test
+    public void csv_unterminatedQuoteLosesOneRowOnly() throws Exception {
+        StringBuilder stray = new StringBuilder("\"Soap");
+        for (int i = 0; i < 70 * 1024; i++) {
+            stray.append('x');
+        }
+        ProductImporter.Result result = importCsv(CSV_HEADER + "\n"
+                + stray + ",Brand,250,3,Supplier,555-555-5555,orders@example.com\n"
+                + "Towel,Brand,1000,1,Supplier,555-555-5555,orders@example.com\n");
+
+        assertEquals(2, result.rowsRead);
+        assertEquals(1, result.rowsImported);
+        assertEquals(1, result.rowsRejected);
+        assertEquals("Towel|Brand|1000|1|Supplier", readProducts().get(0));
+    }
+
+    @Test
+    public void csv_rejectsQuoteLeftOpenAtTheEnd() throws Exception {
+        ProductImporter.Result result = importCsv(CSV_HEADER + "\n"
+                + "Soap,Brand,250,3,Supplier,555-555-5555,orders@example.com\n"
+                + "\"Towel,Brand,1000,1,Supplier,555-555-5555,orders@example.com\n");
+
+        assertEquals(2, result.rowsRead);
+        assertEquals(1, result.rowsImported);
+        assertEquals("Row 2: Unterminated quoted field", result.rejections.get(0));
+    }
+
+    @Test
+    public void json_readsObjectsAndRejectsTheRest() throws Exception {
+        ProductImporter.Result result = importFrom(ProductImporter.FORMAT_JSON, "["
+                + "{\"name\":\"Soap \\\"Deluxe\\\"\\n\",\"brand\":\"Brand\",\"price\":250,\"quantity\":\"3\","
+                + "\"supplier_name\":\"Supplier\",\"supplier_phone\":\"555-555-5555\","
+                + "\"supplier_email\":\"orders@example.com\",\"image\":\"ignored\",\"tags\":[\"a\"]},"
+                + "[\"Towel\"],"
+                + "{\"name\":{\"en\":\"Towel\"},\"brand\":\"Brand\",\"price\":1000,\"quantity\":1,"
+                + "\"supplier_name\":\"Supplier\",\"supplier_phone\":\"555-555-5555\","
+                + "\"supplier_email\":\"orders@example.com\"}"
+                + "]");
+
+        assertEquals(3, result.rowsRead);
+        assertEquals(1, result.rowsImported);
+        assertEquals(2, result.rowsRejected);
+        assertEquals("Soap \"Deluxe\"\n|Brand|250|3|Supplier", readProducts().get(0));
+    }
+
+    private ProductImporter.Result importCsv(String file) throws Exception {
+        return importFrom(ProductImporter.FORMAT_CSV, file);
+    }
+
+    private ProductImporter.Result importFrom(int format, String file) throws Exception {
+        InputStream in = new ByteArrayInputStream(file.getBytes("UTF-8"));
+        return new ProductImporter(mResolver, 2).importFrom(in, format, null);
+    }
+
+    /**
+     * Return the name, brand, price, quantity and supplier of every product, in _ID order
+     */
+    private List<String> readProducts() {
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, new String[]{
+                ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_BRAND,
+                ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_SUPPLIER_NAME}, null, null, ProductEntry._ID);
+        List<String> rows = new ArrayList<String>();
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(cursor.getString(0) + "|" + cursor.getString(1) + "|" + cursor.getLong(2)
+                        + "|" + cursor.getInt(3) + "|" + cursor.getString(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
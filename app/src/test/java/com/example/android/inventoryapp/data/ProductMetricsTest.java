@@ -0,0 +1,46 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bucket layout of {@link ProductMetrics} and the percentiles read back from it
+ */
+public class ProductMetricsTest {
+
+    @Test
+    public void bucketOf_fallsWithinBucketBounds() throws Exception {
+        int previous = -1;
+        for (long micros = 0; micros < 1L << 26; micros += micros < 4096 ? 1 : micros / 97) {
+            int bucket = ProductMetrics.bucketOf(micros);
+            assertTrue(bucket >= previous);
+            assertTrue(ProductMetrics.lowerBoundOf(bucket) <= micros);
+            assertTrue(ProductMetrics.lowerBoundOf(bucket + 1) > micros);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void dump_reportsPercentilesWithinAnEighth() throws Exception {
+        ProductMetrics metrics = new ProductMetrics(new String[]{"inventory", "inventory/#"});
+        for (int i = 1; i <= 1000; i++) {
+            //Backdate the start so that call i appears to have taken i milliseconds
+            metrics.record(ProductMetrics.OP_QUERY, 1, System.nanoTime() - i * 1000000L, i % 100 == 0);
+        }
+
+        StringWriter dump = new StringWriter();
+        metrics.dump(new PrintWriter(dump));
+        String[] row = dump.toString().split("\n")[2].trim().split(" +");
+
+        assertEquals("query", row[0]);
+        assertEquals("inventory/#", row[1]);
+        assertEquals(1000, Long.parseLong(row[2]));
+        assertEquals(10, Long.parseLong(row[3]));
+        assertEquals(500000, Long.parseLong(row[5]), 500000 / 8);
+        assertEquals(990000, Long.parseLong(row[6]), 990000 / 8);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that ProductProvider.bulkInsert writes a batch as a whole, whether its rows go
+ * through the compiled statement or, carrying their own _ID, through SQLiteDatabase.insert,
+ * that deleting a product takes its stock movements with it, and how export URIs are typed
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class ProductProviderTest {
+
+    private ProductProvider mProvider;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUpProvider() {
+        mProvider = Robolectric.setupContentProvider(ProductProvider.class);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void bulkInsert_insertsRowsWithExtraColumns() throws Exception {
+        ContentValues withId = row("Towel");
+        withId.put(ProductEntry._ID, 100);
+
+        assertEquals(2, mResolver.bulkInsert(ProductEntry.CONTENT_URI, new ContentValues[]{row("Soap"), withId}));
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void bulkInsert_refusedRowFailsTheWholeBatch() throws Exception {
+        ContentValues first = row("Soap");
+        first.put(ProductEntry._ID, 100);
+        ContentValues duplicate = row("Towel");
+        duplicate.put(ProductEntry._ID, 100);
+
+        try {
+            mResolver.bulkInsert(ProductEntry.CONTENT_URI, new ContentValues[]{row("Sponge"), first, duplicate});
+            fail("Duplicate _ID was inserted");
+        } catch (SQLiteException expected) {
+        }
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void delete_dropsMovementsSoAReinsertedIdStartsOver() throws Exception {
+        ContentValues soap = row("Soap");
+        soap.put(ProductEntry._ID, 100);
+        mResolver.bulkInsert(ProductEntry.CONTENT_URI, new ContentValues[]{soap});
+        adjustQuantity(100, 5);
+        assertEquals(8, quantity(100));
+
+        Uri soapUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 100);
+        assertEquals(1, mResolver.delete(soapUri, null, null));
+        mResolver.bulkInsert(ProductEntry.CONTENT_URI, new ContentValues[]{soap});
+        assertEquals(3, quantity(100));
+
+        //Deleting every product drops the whole ledger too
+        adjustQuantity(100, 5);
+        mResolver.delete(ProductEntry.CONTENT_URI, null, null);
+        mResolver.bulkInsert(ProductEntry.CONTENT_URI, new ContentValues[]{soap});
+        assertEquals(3, quantity(100));
+    }
+
+    @Test
+    public void exportTypes_areNullForUnknownFormat() throws Exception {
+        Uri xml = ProductEntry.buildExportUri("xml");
+
+        assertNull(mProvider.getType(xml));
+        assertNull(mProvider.getStreamTypes(xml, "*/*"));
+        assertEquals(ProductEntry.CONTENT_EXPORT_JSON_TYPE,
+                mProvider.getType(ProductEntry.buildExportUri(ProductEntry.EXPORT_FORMAT_JSON)));
+        try {
+            mProvider.openFile(xml, "r");
+            fail("Unknown export format was opened");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private void adjustQuantity(long id, int delta) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductEntry.ADJUST_QUANTITY_DELTA, delta);
+        mResolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_ADJUST_QUANTITY, String.valueOf(id), extras);
+    }
+
+    private int quantity(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues row(String name) {
+        return ProductCodec.toContentValues(ProductRepositoryContractTest.product(name, 250, 3));
+    }
+
+    private int count() {
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteConstraintException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Behaviour every {@link ProductRepository} must share. Subclasses supply the implementation
+ * under test, so the SQLite and in-memory engines are held to the same contract.
+ */
+public abstract class ProductRepositoryContractTest {
+
+    private ProductRepository mRepository;
+
+    protected abstract ProductRepository createRepository();
+
+    @Before
+    public void setUpRepository() {
+        mRepository = createRepository();
+    }
+
+    @Test
+    public void insert_assignsIdAndStoresProduct() throws Exception {
+        long id = mRepository.insert(product("Soap", 250, 3));
+
+        assertTrue(id > 0);
+        Product stored = mRepository.get(id);
+        assertEquals(id, stored.getId());
+        assertEquals("Soap", stored.getName());
+        assertEquals(250, stored.getPrice());
+        assertEquals(3, stored.getQuantity());
+        assertEquals(1, mRepository.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insert_rejectsInvalidProduct() throws Exception {
+        mRepository.insert(product("Soap", -1, 3));
+    }
+
+    @Test
+    public void insertAll_insertsEveryProduct() throws Exception {
+        List<Product> products = new ArrayList<Product>();
+        for (int i = 0; i < 50; i++) {
+            products.add(product("Product " + i, 100 + i, i));
+        }
+
+        assertEquals(50, mRepository.insertAll(products));
+        assertEquals(50, mRepository.count());
+    }
+
+    @Test
+    public void insertAll_insertsNothingIfAnyProductIsInvalid() throws Exception {
+        List<Product> products = new ArrayList<Product>();
+        products.add(product("Soap", 250, 3));
+        products.add(product(null, 250, 3));
+
+        try {
+            mRepository.insertAll(products);
+            fail("Expected the product without a name to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, mRepository.count());
+    }
+
+    @Test
+    public void insertAll_insertsNothingIfAnyIdIsTaken() throws Exception {
+        long taken = mRepository.insert(product("Soap", 250, 3));
+        List<Product> products = new ArrayList<Product>();
+        products.add(product("Towel", 1000, 1));
+        Product duplicate = product("Sponge", 100, 1);
+        duplicate.setId(taken);
+        products.add(duplicate);
+
+        try {
+            mRepository.insertAll(products);
+            fail("Expected the product with a taken ID to fail the batch");
+        } catch (SQLiteConstraintException expected) {
+        }
+        assertEquals(1, mRepository.count());
+        assertEquals("Soap", mRepository.get(taken).getName());
+    }
+
+    @Test
+    public void get_returnsNullForMissingProduct() throws Exception {
+        assertNull(mRepository.get(42));
+    }
+
+    @Test
+    public void page_returnsProductsAfterIdInOrder() throws Exception {
+        long[] ids = new long[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mRepository.insert(product("Product " + i, 100, 1));
+        }
+
+        List<Product> page = mRepository.page(ids[3], 4);
+        assertEquals(4, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(ids[4 + i], page.get(i).getId());
+        }
+        assertEquals(2, mRepository.page(ids[7], 4).size());
+    }
+
+    @Test
+    public void adjustQuantity_returnsNewQuantity() throws Exception {
+        long id = mRepository.insert(product("Soap", 250, 3));
+
+        assertEquals(8, mRepository.adjustQuantity(id, 5));
+        assertEquals(1, mRepository.adjustQuantity(id, -7));
+        assertEquals(1, mRepository.get(id).getQuantity());
+    }
+
+    @Test
+    public void adjustQuantity_refusesNegativeQuantityAndMissingProduct() throws Exception {
+        long id = mRepository.insert(product("Soap", 250, 3));
+
+        assertEquals(-1, mRepository.adjustQuantity(id, -4));
+        assertEquals(3, mRepository.get(id).getQuantity());
+        assertEquals(-1, mRepository.adjustQuantity(id + 1, 1));
+    }
+
+    @Test
+    public void update_replacesColumnsIncludingQuantity() throws Exception {
+        long id = mRepository.insert(product("Soap", 250, 3));
+        mRepository.adjustQuantity(id, 2);
+
+        Product changed = product("Hand soap", 300, 9);
+        changed.setId(id);
+        assertTrue(mRepository.update(changed));
+
+        Product stored = mRepository.get(id);
+        assertEquals("Hand soap", stored.getName());
+        assertEquals(300, stored.getPrice());
+        assertEquals(9, stored.getQuantity());
+    }
+
+    @Test
+    public void update_rejectsInvalidProductAndKeepsStoredOne() throws Exception {
+        long id = mRepository.insert(product("Soap", 250, 3));
+        Product changed = product(null, 300, 9);
+        changed.setId(id);
+
+        try {
+            mRepository.update(changed);
+            fail("Product without a name was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals("Soap", mRepository.get(id).getName());
+    }
+
+    @Test
+    public void updateAndDelete_reportMissingProduct() throws Exception {
+        Product missing = product("Soap", 250, 3);
+        missing.setId(42);
+
+        assertFalse(mRepository.update(missing));
+        assertFalse(mRepository.delete(42));
+    }
+
+    @Test
+    public void delete_removesProductAndDoesNotReuseItsId() throws Exception {
+        mRepository.insert(product("Soap", 250, 3));
+        long id = mRepository.insert(product("Towel", 1000, 10));
+
+        assertTrue(mRepository.delete(id));
+        assertNull(mRepository.get(id));
+        assertEquals(1, mRepository.count());
+        assertTrue(mRepository.insert(product("Sponge", 100, 1)) > id);
+    }
+
+    /**
+     * Return a valid product that has not been stored yet
+     */
+    static Product product(String name, int price, int quantity) {
+        Product product = new Product();
+        product.setName(name);
+        product.setBrand("Brand");
+        product.setPrice(price);
+        product.setQuantity(quantity);
+        product.setImage("");
+        product.setSupplierName("Supplier");
+        product.setSupplierPhone("555-555-5555");
+        product.setSupplierEmail("orders@example.com");
+        return product;
+    }
+}
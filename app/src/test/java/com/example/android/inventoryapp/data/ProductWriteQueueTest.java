@@ -0,0 +1,230 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that writes queued on {@link ProductWriteQueue} from many threads are all committed,
+ * each with the result of its own write, on an in-memory database through Robolectric's SQLite
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class ProductWriteQueueTest {
+
+    private ProductDbHelper mDbHelper;
+
+    private SqliteProductRepository mRepository;
+
+    private ProductWriteQueue mQueue;
+
+    @Before
+    public void openQueue() {
+        mDbHelper = new ProductDbHelper(RuntimeEnvironment.application, null);
+        mRepository = new SqliteProductRepository(mDbHelper);
+        mQueue = new ProductWriteQueue(mDbHelper, 4, 64);
+    }
+
+    @After
+    public void closeQueue() {
+        mQueue.close();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void concurrentAdjustments_eachSeeOwnResult() throws Exception {
+        final long id = mRepository.insert(ProductRepositoryContractTest.product("Soap", 250, 0));
+        final List<Future<Integer>> writes = new ArrayList<Future<Integer>>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 50; j++) {
+                        Future<Integer> write = mQueue.adjustQuantity(id, 1);
+                        synchronized (writes) {
+                            writes.add(write);
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<Integer> quantities = new HashSet<Integer>();
+        for (Future<Integer> write : writes) {
+            quantities.add(ProductWriteQueue.await(write));
+        }
+        assertEquals(400, quantities.size());
+        assertTrue(quantities.contains(1));
+        assertTrue(quantities.contains(400));
+        assertEquals(400, mRepository.get(id).getQuantity());
+    }
+
+    @Test
+    public void adjustQuantity_refusesMissingProductAndNegativeQuantity() throws Exception {
+        long id = mRepository.insert(ProductRepositoryContractTest.product("Soap", 250, 1));
+
+        Future<Integer> missing = mQueue.adjustQuantity(id + 1, 1);
+        Future<Integer> sale = mQueue.adjustQuantity(id, -1);
+        Future<Integer> refused = mQueue.adjustQuantity(id, -1);
+
+        assertEquals(-1, (int) ProductWriteQueue.await(missing));
+        assertEquals(0, (int) ProductWriteQueue.await(sale));
+        assertEquals(-1, (int) ProductWriteQueue.await(refused));
+        assertEquals(0, mRepository.get(id).getQuantity());
+    }
+
+    @Test
+    public void update_editsColumnsAndQuantity() throws Exception {
+        long id = mRepository.insert(ProductRepositoryContractTest.product("Soap", 250, 3));
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Hand soap");
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 7);
+
+        final AtomicInteger result = new AtomicInteger(-1);
+        final CountDownLatch done = new CountDownLatch(1);
+        mQueue.update(id, values, new ProductWriteQueue.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer rowsUpdated) {
+                result.set(rowsUpdated);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(RuntimeException error) {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, result.get());
+        Product stored = mRepository.get(id);
+        assertEquals("Hand soap", stored.getName());
+        assertEquals(7, stored.getQuantity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void update_rejectsInvalidValuesRightAway() throws Exception {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, -1);
+        mQueue.update(1, values);
+    }
+
+    @Test
+    public void failedWrite_leavesNothingBehindAndTheBatchCommits() throws Exception {
+        long id = mRepository.insert(ProductRepositoryContractTest.product("Soap", 250, 3));
+        //Fail the edit after it appended its movement, when it renames the product
+        mDbHelper.getWritableDatabase().execSQL("CREATE TEMP TRIGGER refuse_rename BEFORE UPDATE OF "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " ON " + ProductEntry.TABLE_NAME + " WHEN NEW."
+                + ProductEntry.COLUMN_PRODUCT_NAME + " = 'Refused' BEGIN SELECT RAISE(ABORT, 'refused'); END");
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Refused");
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 9);
+
+        Future<Integer> before = mQueue.adjustQuantity(id, 1);
+        Future<Integer> edit = mQueue.update(id, values);
+        Future<Integer> after = mQueue.adjustQuantity(id, 1);
+
+        assertEquals(4, (int) ProductWriteQueue.await(before));
+        try {
+            ProductWriteQueue.await(edit);
+            fail("Refused edit succeeded");
+        } catch (RuntimeException expected) {
+        }
+        assertEquals(5, (int) ProductWriteQueue.await(after));
+        Product stored = mRepository.get(id);
+        assertEquals("Soap", stored.getName());
+        assertEquals(5, stored.getQuantity());
+    }
+
+    @Test
+    public void burst_commitsInFewerTransactionsThanWrites() throws Exception {
+        long id = mRepository.insert(ProductRepositoryContractTest.product("Soap", 250, 0));
+        ProductWriteQueue queue = new ProductWriteQueue(mDbHelper, 500, 64);
+        try {
+            List<Future<Integer>> writes = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 100; i++) {
+                writes.add(queue.adjustQuantity(id, 1));
+            }
+            for (Future<Integer> write : writes) {
+                ProductWriteQueue.await(write);
+            }
+
+            //A full batch of 64, then the other 36 once the first of them waited half a second
+            assertEquals(2, queue.getBatchesCommitted());
+            assertEquals(100, mRepository.get(id).getQuantity());
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void close_commitsQueuedWritesAndRejectsNewOnes() throws Exception {
+        long id = mRepository.insert(ProductRepositoryContractTest.product("Soap", 250, 0));
+        Future<Integer> write = mQueue.adjustQuantity(id, 5);
+
+        mQueue.close();
+
+        assertTrue(write.isDone());
+        assertEquals(5, mRepository.get(id).getQuantity());
+        try {
+            mQueue.adjustQuantity(id, 1);
+            fail("Closed queue accepted a write");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void writerStopped_closesQueue() throws Exception {
+        long id = mRepository.insert(ProductRepositoryContractTest.product("Soap", 250, 0));
+        final Thread[] writer = new Thread[1];
+        final CountDownLatch completed = new CountDownLatch(1);
+        mQueue.adjustQuantity(id, 1, new ProductWriteQueue.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer result) {
+                writer[0] = Thread.currentThread();
+                completed.countDown();
+            }
+
+            @Override
+            public void onFailure(RuntimeException error) {
+            }
+        });
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+
+        writer[0].interrupt();
+        writer[0].join(5000);
+
+        assertFalse(writer[0].isAlive());
+        try {
+            mQueue.adjustQuantity(id, 1);
+            fail("Queue without a writer accepted a write");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, mRepository.get(id).getQuantity());
+    }
+}
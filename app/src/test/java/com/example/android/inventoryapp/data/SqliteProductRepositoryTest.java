@@ -0,0 +1,83 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the repository contract against {@link SqliteProductRepository} on an in-memory
+ * database, through Robolectric's SQLite on the JVM, and checks that selections are matched
+ * against the current quantity rather than the compacted snapshot in the table
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class SqliteProductRepositoryTest extends ProductRepositoryContractTest {
+
+    private ProductDbHelper mDbHelper;
+
+    private SqliteProductRepository mSqliteRepository;
+
+    @Override
+    protected ProductRepository createRepository() {
+        mDbHelper = new ProductDbHelper(RuntimeEnvironment.application, null);
+        mSqliteRepository = new SqliteProductRepository(mDbHelper);
+        return mSqliteRepository;
+    }
+
+    @After
+    public void closeDatabase() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void updateProducts_editsAndRenamesTheSameProducts() throws Exception {
+        long low = mSqliteRepository.insert(product("Soap", 250, 3));
+        long high = mSqliteRepository.insert(product("Towel", 1000, 3));
+        //The snapshot of both stays 3 until compaction; the current quantity of high is 10
+        mSqliteRepository.adjustQuantity(high, 7);
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 0);
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Sold out");
+
+        assertEquals(1, updateProducts(values, ProductEntry.COLUMN_PRODUCT_QUANTITY + " > ?", "5"));
+        assertEquals("Sold out", mSqliteRepository.get(high).getName());
+        assertEquals(0, mSqliteRepository.get(high).getQuantity());
+        assertEquals("Soap", mSqliteRepository.get(low).getName());
+        assertEquals(3, mSqliteRepository.get(low).getQuantity());
+    }
+
+    @Test
+    public void updateProducts_countsProductAlreadyAtTheQuantity() throws Exception {
+        long id = mSqliteRepository.insert(product("Soap", 250, 3));
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 3);
+
+        assertEquals(1, updateProducts(values, ProductEntry._ID + " = ?", String.valueOf(id)));
+        assertEquals(0, updateProducts(values, ProductEntry._ID + " = ?", String.valueOf(id + 1)));
+    }
+
+    private int updateProducts(ContentValues values, String selection, String... selectionArgs) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            int rowsUpdated = SqliteProductRepository.updateProducts(database, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
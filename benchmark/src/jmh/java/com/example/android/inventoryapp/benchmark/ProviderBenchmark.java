@@ -0,0 +1,178 @@
+package com.example.android.inventoryapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Measures the statements behind ProductProvider's insert, bulkInsert, single product query,
+ * list query and quantity adjustment, against SQLite over JDBC at several catalog sizes.
+ * Each trial gets a new database file seeded with catalogSize products, and every iteration
+ * starts from those products alone, without the rows and movements earlier iterations added.
+ * Compare the JSON results of a change against those of its parent commit.
+ */
+@State(Scope.Thread)
+public class ProviderBenchmark {
+
+    /** Products inserted per bulkInsert transaction, the importer's default batch size */
+    private static final int BULK_ROWS = 500;
+
+    /** Products per page of the inventory list */
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int catalogSize;
+
+    private File mFile;
+
+    private Connection mConnection;
+
+    private PreparedStatement mInsert;
+
+    private PreparedStatement mQueryById;
+
+    private PreparedStatement mQueryList;
+
+    private PreparedStatement mQueryIdPage;
+
+    private PreparedStatement mAppendMovement;
+
+    private final Random mRandom = new Random(42);
+
+    private int mInserted;
+
+    @Setup(Level.Trial)
+    public void openDatabase() throws IOException, SQLException {
+        mFile = File.createTempFile("inventory-benchmark", ".db");
+        mFile.delete();
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        InventorySchema.create(mConnection);
+        InventorySchema.seed(mConnection, catalogSize, mRandom);
+
+        mInsert = mConnection.prepareStatement(InventorySchema.INSERT_PRODUCT);
+        mQueryById = mConnection.prepareStatement(InventorySchema.QUERY_BY_ID);
+        mQueryList = mConnection.prepareStatement(InventorySchema.QUERY_LIST_PAGE);
+        mQueryIdPage = mConnection.prepareStatement(InventorySchema.QUERY_ID_PAGE);
+        mAppendMovement = mConnection.prepareStatement(InventorySchema.APPEND_MOVEMENT);
+    }
+
+    /**
+     * Remove the products and movements the benchmarks added during the iteration. The seeded
+     * products have _IDs 1 to catalogSize and no movements
+     */
+    @TearDown(Level.Iteration)
+    public void resetDatabase() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.executeUpdate("DELETE FROM inventory WHERE _id > " + catalogSize);
+            statement.executeUpdate("DELETE FROM stock_movements");
+        } finally {
+            statement.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws SQLException {
+        mConnection.close();
+        mFile.delete();
+        new File(mFile.getPath() + "-wal").delete();
+        new File(mFile.getPath() + "-shm").delete();
+    }
+
+    /** ProductProvider.insert: one product in its own transaction */
+    @Benchmark
+    public int insert() throws SQLException {
+        InventorySchema.bindProduct(mInsert, mInserted++, mRandom);
+        return mInsert.executeUpdate();
+    }
+
+    /** ProductProvider.bulkInsert: BULK_ROWS products in one transaction, per product */
+    @Benchmark
+    @OperationsPerInvocation(BULK_ROWS)
+    public int bulkInsert() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            int rows = 0;
+            for (int i = 0; i < BULK_ROWS; i++) {
+                InventorySchema.bindProduct(mInsert, mInserted++, mRandom);
+                rows += mInsert.executeUpdate();
+            }
+            mConnection.commit();
+            return rows;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /** ProductProvider.query on a single product that is not cached */
+    @Benchmark
+    public void queryById(Blackhole blackhole) throws SQLException {
+        mQueryById.setLong(1, 1 + mRandom.nextInt(catalogSize));
+        ResultSet row = mQueryById.executeQuery();
+        try {
+            while (row.next()) {
+                for (int i = 1; i <= 9; i++) {
+                    blackhole.consume(row.getObject(i));
+                }
+            }
+        } finally {
+            row.close();
+        }
+    }
+
+    /** ProductProvider.query for the first page of the list sorted by name */
+    @Benchmark
+    public void listQuery(Blackhole blackhole) throws SQLException {
+        mQueryList.setInt(1, PAGE_SIZE);
+        consumePage(mQueryList.executeQuery(), blackhole);
+    }
+
+    /** ProductProvider.query for a full page of the list in _ID order, as InventoryActivity pages it */
+    @Benchmark
+    public void idPageQuery(Blackhole blackhole) throws SQLException {
+        mQueryIdPage.setLong(1, mRandom.nextInt(Math.max(1, catalogSize - PAGE_SIZE)));
+        mQueryIdPage.setInt(2, PAGE_SIZE);
+        consumePage(mQueryIdPage.executeQuery(), blackhole);
+    }
+
+    private static void consumePage(ResultSet page, Blackhole blackhole) throws SQLException {
+        try {
+            while (page.next()) {
+                blackhole.consume(page.getLong(1));
+                blackhole.consume(page.getString(2));
+                blackhole.consume(page.getInt(3));
+                blackhole.consume(page.getInt(4));
+            }
+        } finally {
+            page.close();
+        }
+    }
+
+    /** ProductProvider.adjustQuantity: a sale or delivery of one unit appended to the ledger */
+    @Benchmark
+    public int adjustQuantity() throws SQLException {
+        int delta = mRandom.nextBoolean() ? 1 : -1;
+        mAppendMovement.setInt(1, delta);
+        mAppendMovement.setString(2, delta < 0 ? "sale" : "receive");
+        mAppendMovement.setLong(3, System.currentTimeMillis());
+        mAppendMovement.setLong(4, 1 + mRandom.nextInt(catalogSize));
+        mAppendMovement.setInt(5, delta);
+        return mAppendMovement.executeUpdate();
+    }
+}
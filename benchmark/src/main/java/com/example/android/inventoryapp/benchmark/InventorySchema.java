@@ -0,0 +1,175 @@
+package com.example.android.inventoryapp.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * The inventory schema and the statements ProductProvider runs, for use over JDBC.
+ * ProductDbHelper and ProductProvider build their SQL from ProductContract, which needs the
+ * Android framework, so the same SQL is spelled out here. A change to the schema, its indexes,
+ * triggers or views, or to a provider statement, must be copied here for the benchmarks to
+ * measure it. InventorySchemaTest in the app's unit tests fails until it is: it compares the
+ * schema created from CREATE with the one ProductDbHelper creates, and the statements with
+ * those of SqliteProductRepository.
+ */
+public final class InventorySchema {
+
+    private InventorySchema() {}
+
+    public static final String[] CREATE = {
+            "CREATE TABLE inventory (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL,"
+                    + " supplier_name TEXT NOT NULL, supplier_email TEXT NOT NULL, supplier_phone TEXT NOT NULL,"
+                    + " brand TEXT NOT NULL, price INTEGER NOT NULL, image TEXT NOT NULL,"
+                    + " quantity INTEGER NOT NULL DEFAULT 0)",
+
+            "CREATE INDEX idx_inventory_list ON inventory (name, _id, price, quantity)",
+            "CREATE INDEX idx_inventory_brand ON inventory (brand)",
+            "CREATE INDEX idx_inventory_supplier_name ON inventory (supplier_name)",
+
+            "CREATE VIRTUAL TABLE inventory_fts USING fts4(name, brand, supplier_name)",
+            "CREATE TRIGGER inventory_fts_insert AFTER INSERT ON inventory BEGIN"
+                    + " INSERT INTO inventory_fts (docid, name, brand, supplier_name)"
+                    + " VALUES (new._id, new.name, new.brand, new.supplier_name); END",
+            "CREATE TRIGGER inventory_fts_update AFTER UPDATE OF name, brand, supplier_name ON inventory BEGIN"
+                    + " UPDATE inventory_fts SET name = new.name, brand = new.brand,"
+                    + " supplier_name = new.supplier_name WHERE docid = old._id; END",
+            "CREATE TRIGGER inventory_fts_delete AFTER DELETE ON inventory BEGIN"
+                    + " DELETE FROM inventory_fts WHERE docid = old._id; END",
+
+            "CREATE TABLE stock_movements (_id INTEGER PRIMARY KEY AUTOINCREMENT, product_id INTEGER NOT NULL,"
+                    + " delta INTEGER NOT NULL, reason TEXT NOT NULL, time INTEGER NOT NULL)",
+            "CREATE INDEX idx_stock_movements_product ON stock_movements (product_id, _id, delta)",
+            "CREATE INDEX idx_stock_movements_time ON stock_movements (time)",
+            "CREATE TABLE stock_ledger_state (_id INTEGER PRIMARY KEY, compacted_through INTEGER NOT NULL,"
+                    + " compacting INTEGER NOT NULL)",
+            "INSERT INTO stock_ledger_state VALUES (1, 0, 0)",
+            "CREATE VIEW inventory_current AS SELECT _id, name, brand, price, quantity + "
+                    + pendingDelta("inventory") + " AS quantity,"
+                    + " CASE WHEN typeof(image) = 'blob' THEN '' ELSE image END AS image,"
+                    + " supplier_name, supplier_phone, supplier_email FROM inventory",
+
+            "CREATE TABLE inventory_stats (_id INTEGER PRIMARY KEY, product_count INTEGER NOT NULL,"
+                    + " unit_count INTEGER NOT NULL, stock_value INTEGER NOT NULL, low_stock_count INTEGER NOT NULL)",
+            "INSERT INTO inventory_stats VALUES (1, 0, 0, 0, 0)",
+            "CREATE TRIGGER inventory_stats_insert AFTER INSERT ON inventory BEGIN "
+                    + statsUpdate(null, "new") + "; END",
+            "CREATE TRIGGER inventory_stats_update AFTER UPDATE OF price, quantity ON inventory"
+                    + " WHEN (SELECT compacting FROM stock_ledger_state WHERE _id = 1) = 0 BEGIN "
+                    + statsUpdate("old", "new") + "; END",
+            "CREATE TRIGGER inventory_delete AFTER DELETE ON inventory BEGIN "
+                    + statsUpdate("old", null) + "; DELETE FROM stock_movements WHERE product_id = old._id"
+                    + " AND _id > (SELECT compacted_through FROM stock_ledger_state WHERE _id = 1); END",
+            "CREATE TRIGGER stock_movements_stats AFTER INSERT ON stock_movements"
+                    + " WHEN EXISTS (SELECT 1 FROM inventory WHERE _id = new.product_id) BEGIN"
+                    + " UPDATE inventory_stats SET unit_count = unit_count + new.delta,"
+                    + " stock_value = stock_value + new.delta * (SELECT price FROM inventory WHERE _id = new.product_id),"
+                    + " low_stock_count = low_stock_count + (SELECT (quantity < 5) - (quantity - new.delta < 5)"
+                    + " FROM inventory_current WHERE _id = new.product_id) WHERE _id = 1; END",
+
+            "CREATE TABLE IF NOT EXISTS schema_backfills (name TEXT PRIMARY KEY, after_id INTEGER NOT NULL,"
+                    + " through_id INTEGER NOT NULL)"
+    };
+
+    /** ProductProvider.SQL_INSERT_PRODUCT */
+    public static final String INSERT_PRODUCT = "INSERT INTO inventory (name, brand, price, quantity, image,"
+            + " supplier_name, supplier_phone, supplier_email) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** ProductProvider.SQL_APPEND_MOVEMENT, used by every quantity adjustment */
+    public static final String APPEND_MOVEMENT = "INSERT INTO stock_movements (product_id, delta, reason, time)"
+            + " SELECT _id, ?, ?, ? FROM inventory_current WHERE _id = ? AND quantity + ? >= 0";
+
+    /** Single product query, as served when the row is not in the provider's cache */
+    static final String QUERY_BY_ID = "SELECT _id, name, brand, price, quantity, image, supplier_name,"
+            + " supplier_phone, supplier_email FROM inventory_current WHERE _id = ?";
+
+    /** First page of the inventory list, sorted by name */
+    static final String QUERY_LIST_PAGE = "SELECT _id, name, price, quantity FROM inventory_current"
+            + " ORDER BY name, _id LIMIT ?";
+
+    /** Page of the inventory list after a given _ID, as the app's page loaders read it */
+    static final String QUERY_ID_PAGE = "SELECT _id, name, price, quantity FROM inventory_current"
+            + " WHERE _id > ? ORDER BY _id LIMIT ?";
+
+    private static String pendingDelta(String row) {
+        return "ifnull((SELECT sum(delta) FROM stock_movements WHERE product_id = " + row + "._id"
+                + " AND _id > (SELECT compacted_through FROM stock_ledger_state WHERE _id = 1)), 0)";
+    }
+
+    private static String statsUpdate(String removed, String added) {
+        return "UPDATE inventory_stats SET"
+                + " product_count = product_count" + statsTerm(removed, added, "1") + ","
+                + " unit_count = unit_count" + statsTerm(removed, added, "{quantity}") + ","
+                + " stock_value = stock_value" + statsTerm(removed, added, "{price} * {quantity}") + ","
+                + " low_stock_count = low_stock_count" + statsTerm(removed, added, "({quantity} < 5)")
+                + " WHERE _id = 1";
+    }
+
+    private static String statsTerm(String removed, String added, String expression) {
+        String term = "";
+        if (removed != null) {
+            term += " - " + statsValue(removed, expression);
+        }
+        if (added != null) {
+            term += " + " + statsValue(added, expression);
+        }
+        return term;
+    }
+
+    private static String statsValue(String row, String expression) {
+        return expression.replace("{price}", row + ".price")
+                .replace("{quantity}", "(" + row + ".quantity + " + pendingDelta(row) + ")");
+    }
+
+    /**
+     * Create the schema and configure the connection the way ProductDbHelper configures its
+     * database: write-ahead logging with synchronous = NORMAL
+     */
+    static void create(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = NORMAL");
+            statement.execute("PRAGMA wal_autocheckpoint = 1000");
+            for (String sql : CREATE) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Bind the values of one made up product to the INSERT_PRODUCT statement
+     */
+    static void bindProduct(PreparedStatement insert, int i, Random random) throws SQLException {
+        insert.setString(1, "Product " + Integer.toHexString(random.nextInt()));
+        insert.setString(2, "Brand " + (i % 50));
+        insert.setInt(3, 100 + random.nextInt(10000));
+        insert.setInt(4, random.nextInt(20));
+        insert.setString(5, "");
+        insert.setString(6, "Supplier " + (i % 200));
+        insert.setString(7, "555-555-5555");
+        insert.setString(8, "orders@example.com");
+    }
+
+    /**
+     * Insert count products in one transaction
+     */
+    static void seed(Connection connection, int count, Random random) throws SQLException {
+        connection.setAutoCommit(false);
+        PreparedStatement insert = connection.prepareStatement(INSERT_PRODUCT);
+        try {
+            for (int i = 0; i < count; i++) {
+                bindProduct(insert, i, random);
+                insert.executeUpdate();
+            }
+            connection.commit();
+        } finally {
+            insert.close();
+            connection.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+#!/bin/sh
+# Measures the cold start of the inventory list on the connected device or emulator.
+#
+# Each run kills the app's process and launches InventoryActivity, then records two times:
+#   - first frame: TotalTime reported by `am start -W`
+#   - first page: the "Fully drawn" time the activity reports once the first page of products
+#     is on screen
+# The medians over all runs are printed at the end. For comparable numbers, install the same
+# build type, keep the same database on the device, and use the same number of runs.
+#
+# Usage: scripts/cold-start.sh [runs]    (default 10)
+
+set -e
+
+RUNS=${1:-10}
+PACKAGE=com.example.android.inventoryapp
+ACTIVITY=$PACKAGE/.InventoryActivity
+
+# Print the median of the numbers on standard input
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { if (NR == 0) print "n/a"; else print v[int((NR + 1) / 2)] }'
+}
+
+FIRST_FRAME=$(mktemp)
+FIRST_PAGE=$(mktemp)
+trap 'rm -f "$FIRST_FRAME" "$FIRST_PAGE"' EXIT
+
+i=1
+while [ "$i" -le "$RUNS" ]; do
+    adb shell am force-stop "$PACKAGE"
+    adb logcat -c
+    sleep 1
+
+    total=$(adb shell am start -W -n "$ACTIVITY" | tr -d '\r' | awk -F': ' '/^TotalTime/ { print $2 }')
+
+    # Wait for the first page; "Fully drawn ...: +1s234ms" or "+734ms"
+    drawn=""
+    tries=0
+    while [ -z "$drawn" ] && [ "$tries" -lt 20 ]; do
+        drawn=$(adb logcat -d -s ActivityManager:I ActivityTaskManager:I | tr -d '\r' \
+            | grep "Fully drawn $ACTIVITY" | tail -n 1 \
+            | sed -E 's/.*\+(([0-9]+)s)?([0-9]+)ms.*/\2 \3/' \
+            | awk '{ if (NF == 2) print $1 * 1000 + $2; else print $1 }')
+        tries=$((tries + 1))
+        [ -z "$drawn" ] && sleep 0.5
+    done
+
+    echo "run $i: first frame ${total:-?} ms, first page ${drawn:-?} ms"
+    [ -n "$total" ] && echo "$total" >> "$FIRST_FRAME"
+    [ -n "$drawn" ] && echo "$drawn" >> "$FIRST_PAGE"
+    i=$((i + 1))
+done
+
+echo "median over $RUNS runs: first frame $(median < "$FIRST_FRAME") ms, first page $(median < "$FIRST_PAGE") ms"